@@ -0,0 +1,66 @@
+package com.example.s2s.voipgateway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-INVITE header extraction on captured INVITEs: a Genesys Cloud INVITE with X- headers and hex encoded
+ * User-to-User data, and a plain PBX INVITE.  callVariables is the work done for a call before its prompt is sent
+ * (the external variables log and the lookups of a prompt's placeholders); parseRawHeaders decodes every header, as
+ * the S3 trace does when the call ends.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@State(Scope.Thread)
+public class SipHeaderBenchmark {
+    @Param({"genesys-invite.txt", "plain-invite.txt"})
+    String capture;
+    private static final String[] PROMPT_VARIABLES = {
+            "nombre", "uui_nombre", "monto_deuda", "uui_monto_deuda", "fecha_limite", "uui_fecha_limite",
+            "client_id", "uui_conversation_id"};
+    private byte[] raw;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream is = SipHeaderBenchmark.class.getResourceAsStream("/invites/" + capture)) {
+            if (is == null) {
+                throw new IOException("Capture not found: " + capture);
+            }
+            String text = new String(is.readAllBytes(), StandardCharsets.UTF_8).replaceAll("\r?\n", "\r\n");
+            raw = text.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public void callVariables(Blackhole bh) {
+        CallVariables variables = new CallVariables(raw);
+        bh.consume(variables.getUuiVariables());
+        for (String name : PROMPT_VARIABLES) {
+            bh.consume(variables.get(name));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> parseRawHeaders() {
+        return SipHeaders.parse(raw);
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.constants.SonicAudioConfig;
+import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
+import com.example.s2s.voipgateway.nova.event.PromptStartEvent;
+import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound event path: NovaS2SResponseHandler parsing one output chunk and dispatching it, for audioOutput events
+ * of the sizes Nova sends and for a textOutput transcript.  Payloads have the same fields and field order as the
+ * events recorded from Nova Sonic.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@State(Scope.Thread)
+public class ResponseHandlerBenchmark {
+    @Param({"40", "200"})
+    int audioMillis;
+    private byte[] audioOutput;
+    private byte[] textOutput;
+    private CountingEventHandler handler;
+    private NovaS2SResponseHandler responseHandler;
+
+    @Setup
+    public void setup() {
+        String ids = "\"completionId\":\"" + UUID.randomUUID() + "\",\"contentId\":\"" + UUID.randomUUID() + "\"";
+        String session = "\"promptName\":\"" + UUID.randomUUID() + "\",\"role\":\"ASSISTANT\",\"sessionId\":\""
+                + UUID.randomUUID() + "\"";
+        audioOutput = ("{\"event\":{\"audioOutput\":{" + ids + ",\"content\":\"" + renderSpeech(audioMillis) + "\","
+                + session + "}}}").getBytes(StandardCharsets.UTF_8);
+        textOutput = ("{\"event\":{\"textOutput\":{" + ids + ",\"content\":\"Claro, con gusto le ayudo a agendar "
+                + "su cita. ¿Para qué especialidad la necesita?\"," + session + "}}}").getBytes(StandardCharsets.UTF_8);
+        handler = new CountingEventHandler();
+        responseHandler = new NovaS2SResponseHandler(handler);
+    }
+
+    @Benchmark
+    public long audioOutput() {
+        responseHandler.handleJsonResponse(audioOutput, 0, audioOutput.length);
+        return handler.audioBytes;
+    }
+
+    @Benchmark
+    public long textOutput() {
+        responseHandler.handleJsonResponse(textOutput, 0, textOutput.length);
+        return handler.textEvents;
+    }
+
+    private static String renderSpeech(int millis) {
+        int samples = SonicAudioConfig.SAMPLE_RATE * millis / 1000;
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / SonicAudioConfig.SAMPLE_RATE;
+            short sample = (short) ((Math.sin(2 * Math.PI * 180 * t) + 0.5 * Math.sin(2 * Math.PI * 720 * t)) * 6000);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return Base64.getEncoder().encodeToString(pcm);
+    }
+
+    /**
+     * Event handler that only counts what it receives.
+     */
+    private static class CountingEventHandler implements NovaS2SEventHandler {
+        private long audioBytes = 0;
+        private long textEvents = 0;
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void handleCompletionStart(JsonNode node) {
+        }
+
+        @Override
+        public void handleContentStart(JsonNode node) {
+        }
+
+        @Override
+        public void handleTextOutput(JsonNode node) {
+            textEvents++;
+        }
+
+        @Override
+        public void handleAudioOutput(String contentId, String role, byte[] ulaw, int offset, int length) {
+            audioBytes += length;
+        }
+
+        @Override
+        public void handleContentEnd(JsonNode node) {
+        }
+
+        @Override
+        public void handleInterruption(String contentId) {
+        }
+
+        @Override
+        public void handleCompletionEnd(JsonNode node) {
+        }
+
+        @Override
+        public void handleToolUse(JsonNode node, String toolUseId, String toolName, String content) {
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public void setOutbound(InteractObserver<NovaSonicEvent> outbound) {
+        }
+
+        @Override
+        public InputStream getAudioInputStream() {
+            return null;
+        }
+
+        @Override
+        public PromptStartEvent.ToolConfiguration getToolConfiguration() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.s2s.voipgateway.nova.context;
+
+import com.example.s2s.voipgateway.tracing.CallTracer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call prompt rendering on the tenant prompts shipped in the gateway jar, with the variables a Genesys call
+ * carries (SIP headers, calculated values and decoded UUI data): a PromptTemplate compiled at setup, as the gateway
+ * does at startup, against VariableReplacer, which parses the prompt on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@State(Scope.Thread)
+public class VariableReplacerBenchmark {
+    @Param({"/prompts/keralty/base-prompt.txt", "/prompts/colmedica/base-prompt.txt",
+            "/prompts/colmedica/context-informar-deuda.txt"})
+    String prompt;
+    private String content;
+    private PromptTemplate template;
+    private CallTracer tracer;
+
+    @Setup
+    public void setup() {
+        content = PromptFragmentLoader.loadFragment(prompt);
+        if (content.isEmpty()) {
+            throw new IllegalStateException("Prompt not found on the classpath: " + prompt);
+        }
+        Map<String, String> variables = new HashMap<>();
+        variables.put("sip_call_id", "a84b4c76e66710@pc33.example.com");
+        variables.put("ani", "3001234567");
+        variables.put("dnis", "6015550100");
+        variables.put("client_id", "colmedica");
+        variables.put("from", "<sip:3001234567@sbc.example.com>;tag=1928301774");
+        variables.put("to", "<sip:6015550100@gateway.example.com>");
+        variables.put("via", "SIP/2.0/UDP sbc.example.com:5060;branch=z9hG4bK776asdhds");
+        variables.put("contact", "<sip:3001234567@10.0.0.12:5060>");
+        variables.put("user-agent", "Genesys Cloud Edge");
+        variables.put("x-genesys-conversationid", "5c8e1a2b-0f1d-4e7a-9b3c-2d4e6f8a0b1c");
+        variables.put("uui_conversationid", "5c8e1a2b-0f1d-4e7a-9b3c-2d4e6f8a0b1c");
+        variables.put("uui_nombre", "Maria Fernanda");
+        variables.put("uui_monto_deuda", "1.250.000");
+        variables.put("uui_fecha_limite", "30 de noviembre");
+        variables.put("uui_documento", "1020304050");
+        tracer = new CallTracer(variables);
+        template = PromptTemplate.compile(content);
+    }
+
+    @Benchmark
+    public String replaceVariables() {
+        return VariableReplacer.replaceVariables(content, tracer);
+    }
+
+    @Benchmark
+    public String renderTemplate() {
+        return template.render(tracer);
+    }
+}
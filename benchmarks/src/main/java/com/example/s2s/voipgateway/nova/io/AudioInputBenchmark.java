@@ -0,0 +1,76 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import com.example.s2s.voipgateway.nova.observer.InputEventsInteractObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.bedrockruntime.model.BidirectionalInputPayloadPart;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamInput;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller audio path: one 20 ms μ-law RTP frame written to NovaAudioOutputStream, rendered as an audioInput event
+ * and wrapped as an SDK input chunk by InputEventsInteractObserver.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@State(Scope.Thread)
+public class AudioInputBenchmark {
+    private final byte[] frame = new byte[160];
+    private CountingSubscriber subscriber;
+    private NovaAudioOutputStream stream;
+
+    @Setup
+    public void setup() throws IOException {
+        new Random(42).nextBytes(frame);
+        subscriber = new CountingSubscriber();
+        stream = new NovaAudioOutputStream(new InputEventsInteractObserver(subscriber), "benchmark-prompt");
+        stream.write(frame, 0, frame.length); // sends the audio contentStart outside the measurement
+    }
+
+    @Benchmark
+    public long writeFrame() throws IOException {
+        stream.write(frame, 0, frame.length);
+        return subscriber.bytes;
+    }
+
+    /**
+     * Stands in for the SDK's request publisher, keeping the payload size so the work is not eliminated.
+     */
+    private static class CountingSubscriber implements Subscriber<InvokeModelWithBidirectionalStreamInput> {
+        private long bytes = 0;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(InvokeModelWithBidirectionalStreamInput input) {
+            bytes += ((BidirectionalInputPayloadPart) input).bytes().asByteArrayUnsafe().length;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
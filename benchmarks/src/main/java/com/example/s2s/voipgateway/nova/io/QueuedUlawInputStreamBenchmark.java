@@ -0,0 +1,49 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bot audio path: the RTP sender reading one 20 ms frame from the outbound ring buffer, with audio queued and
+ * while the buffer is dry and the read is filled with silence.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@State(Scope.Thread)
+public class QueuedUlawInputStreamBenchmark {
+    private final byte[] frame = new byte[160];
+    private final byte[] out = new byte[160];
+    private QueuedUlawInputStream stream;
+
+    @Setup
+    public void setup() {
+        new Random(42).nextBytes(frame);
+        stream = new QueuedUlawInputStream();
+    }
+
+    @Benchmark
+    public int appendAndReadFrame() throws IOException, InterruptedException {
+        stream.appendUlaw(frame, 0, frame.length);
+        return stream.read(out, 0, out.length);
+    }
+
+    @Benchmark
+    public int readSilence() throws IOException {
+        return stream.read(out, 0, out.length);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * G.711 transcoding of one RTP frame (20 ms) or one Nova audio chunk (100 ms): allocating, into caller arrays and
+ * between heap or direct ByteBuffers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@State(Scope.Thread)
+public class TranscoderBenchmark {
+    @Param({"20", "100"})
+    int frameMillis;
+    private byte[] ulaw;
+    private byte[] pcm;
+    private byte[] ulawOut;
+    private byte[] pcmOut;
+
+    @Setup
+    public void setup() {
+        int samples = frameMillis * 8;
+        ulaw = new byte[samples];
+        new Random(42).nextBytes(ulaw);
+        pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * i / 8000) * 8000);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        ulawOut = new byte[samples];
+        pcmOut = new byte[samples * 2];
+    }
+
+    /**
+     * The same audio held in ByteBuffers.
+     */
+    @State(Scope.Thread)
+    public static class Buffers {
+        @Param({"heap", "direct"})
+        String kind;
+        ByteBuffer ulaw;
+        ByteBuffer pcm;
+        ByteBuffer ulawOut;
+        ByteBuffer pcmOut;
+
+        @Setup
+        public void setup(TranscoderBenchmark benchmark) {
+            boolean direct = "direct".equals(kind);
+            ulaw = allocate(benchmark.ulaw.length, direct).put(benchmark.ulaw);
+            pcm = allocate(benchmark.pcm.length, direct).put(benchmark.pcm);
+            ulawOut = allocate(benchmark.ulaw.length, direct);
+            pcmOut = allocate(benchmark.pcm.length, direct);
+        }
+
+        private static ByteBuffer allocate(int capacity, boolean direct) {
+            return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+    }
+
+    @Benchmark
+    public byte[] ulawToPcm() {
+        return UlawToPcmTranscoder.convertByteArray(ulaw);
+    }
+
+    @Benchmark
+    public byte[] ulawToPcmInto() {
+        UlawToPcmTranscoder.convert(ulaw, 0, ulaw.length, pcmOut, 0);
+        return pcmOut;
+    }
+
+    @Benchmark
+    public byte[] pcmToUlaw() {
+        return PcmToULawTranscoder.transcodeBytes(pcm);
+    }
+
+    @Benchmark
+    public int pcmToUlawInto() {
+        return PcmToULawTranscoder.transcode(pcm, 0, pcm.length, ulawOut, 0);
+    }
+
+    @Benchmark
+    public int decodeBuffer(Buffers buffers) {
+        buffers.ulaw.clear();
+        buffers.pcmOut.clear();
+        return UlawToPcmTranscoder.decode(buffers.ulaw, buffers.pcmOut);
+    }
+
+    @Benchmark
+    public int encodeBuffer(Buffers buffers) {
+        buffers.pcm.clear();
+        buffers.ulawOut.clear();
+        return PcmToULawTranscoder.encode(buffers.pcm, buffers.ulawOut);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.s2s.voipgateway.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples in milliseconds and reports percentiles.
+ */
+public class LatencyStats {
+    private final String name;
+    private long[] samples = new long[256];
+    private int count = 0;
+
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one sample.
+     * @param millis The latency in milliseconds.
+     */
+    public synchronized void record(long millis) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = millis;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile using the nearest-rank method, or -1 if there are no samples.
+     * @param percentile The percentile, 0-100.
+     * @return The latency in milliseconds.
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.min(count, Math.max(1, rank)) - 1];
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (count == 0) {
+            return String.format("%-22s n=0", name);
+        }
+        return String.format("%-22s n=%-6d p50=%-6d p90=%-6d p99=%-6d max=%d ms",
+                name, count, percentile(50), percentile(90), percentile(99), percentile(100));
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.s2s.voipgateway.loadtest;
+
+import org.mjsip.media.MediaDesc;
+import org.mjsip.media.MediaSpec;
+import org.mjsip.pool.PortConfig;
+import org.mjsip.pool.PortPool;
+import org.mjsip.sip.address.NameAddress;
+import org.mjsip.sip.address.SipURI;
+import org.mjsip.sip.provider.SipConfig;
+import org.mjsip.sip.provider.SipProvider;
+import org.mjsip.time.ConfiguredScheduler;
+import org.mjsip.time.SchedulerConfig;
+import org.mjsip.ua.UAConfig;
+import org.mjsip.ua.registration.RegistrationClient;
+import org.mjsip.ua.registration.RegistrationClientListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SIP/RTP load generator for the gateway.
+ *
+ * Acts as a SIP UAC that places synthetic calls against the gateway at a fixed rate up to a concurrency limit.
+ * Every call streams WAV fixtures as PCMU at real-time pace, waits for the bot to answer each turn and measures the
+ * audio that comes back.  At the end it reports call rate, setup latency, time-to-first-audio and inter-turn latency
+ * percentiles, playout underruns and, when the gateway process can be sampled, CPU and memory per call.
+ */
+public class LoadGenerator implements RegistrationClientListener {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+    private final Map<String, String> environ;
+    private final NameAddress target;
+    private final int concurrency;
+    private final int totalCalls;
+    private final double callsPerSecond;
+    private final long callMillis;
+    private final long setupTimeoutMillis;
+    private final long reportIntervalMillis;
+    private final List<byte[]> utterances = new ArrayList<>();
+    private final LoadMetrics metrics = new LoadMetrics();
+    private final ProcessSampler sampler;
+    private final ScheduledExecutorService scheduler;
+    private final SipProvider sipProvider;
+    private final UAConfig uaConfig;
+    private final PortPool portPool;
+    private RegistrationClient registrationClient;
+    private long startNanos;
+
+    public LoadGenerator(Map<String, String> environ) throws IOException {
+        this.environ = environ;
+        String targetUri = environ.get("LOADTEST_TARGET");
+        if (!isConfigured(targetUri)) {
+            throw new IllegalArgumentException("LOADTEST_TARGET must be set to the gateway's SIP URI, "
+                    + "e.g. sip:gateway@10.0.0.5:5060");
+        }
+        this.target = new NameAddress(new SipURI(targetUri));
+        this.concurrency = Integer.parseInt(environ.getOrDefault("LOADTEST_CALLS", "10"));
+        this.totalCalls = Integer.parseInt(environ.getOrDefault("LOADTEST_TOTAL_CALLS", String.valueOf(concurrency)));
+        this.callsPerSecond = Double.parseDouble(environ.getOrDefault("LOADTEST_CPS", "2"));
+        this.callMillis = Long.parseLong(environ.getOrDefault("LOADTEST_CALL_SECONDS", "30")) * 1000;
+        this.setupTimeoutMillis = Long.parseLong(environ.getOrDefault("LOADTEST_SETUP_TIMEOUT_MS", "32000"));
+        this.reportIntervalMillis = Long.parseLong(environ.getOrDefault("LOADTEST_REPORT_INTERVAL_S", "5")) * 1000;
+        for (String wav : environ.getOrDefault("LOADTEST_WAV", "hello-how.wav").split(",")) {
+            utterances.add(ScriptedAudioSource.loadUtterance(wav.trim()));
+        }
+        String pid = environ.get("LOADTEST_GATEWAY_PID");
+        this.sampler = isConfigured(pid)
+                ? new ProcessSampler(Long.parseLong(pid), Long.parseLong(environ.getOrDefault("LOADTEST_CLK_TCK", "100")))
+                : null;
+        this.scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "loadtest-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+
+        SipConfig sipConfig = new SipConfig();
+        sipConfig.setHostPort(Integer.parseInt(environ.getOrDefault("LOADTEST_SIP_PORT", "5070")));
+        sipConfig.setLogAllPackets(environ.getOrDefault("DEBUG_SIP", "false").equalsIgnoreCase("true"));
+        if (isConfigured(environ.get("LOADTEST_VIA_ADDR"))) {
+            sipConfig.setViaAddrIPv4(environ.get("LOADTEST_VIA_ADDR"));
+        }
+        uaConfig = new UAConfig();
+        uaConfig.setSipUser(environ.getOrDefault("LOADTEST_SIP_USER", "loadtest"));
+        uaConfig.setNoPrompt(true);
+        if (isConfigured(environ.get("LOADTEST_MEDIA_ADDRESS"))) {
+            uaConfig.setMediaAddr(environ.get("LOADTEST_MEDIA_ADDRESS"));
+        }
+        boolean register = isConfigured(environ.get("LOADTEST_REGISTRAR"));
+        uaConfig.setRegister(register);
+        if (register) {
+            uaConfig.setRegistrar(new SipURI(environ.get("LOADTEST_REGISTRAR")));
+            uaConfig.setAuthUser(environ.get("LOADTEST_AUTH_USER"));
+            uaConfig.setAuthPasswd(environ.get("LOADTEST_AUTH_PASSWORD"));
+            uaConfig.setAuthRealm(environ.get("LOADTEST_AUTH_REALM"));
+        }
+        sipConfig.normalize();
+        uaConfig.normalize(sipConfig);
+
+        PortConfig portConfig = new PortConfig();
+        portConfig.setMediaPort(Integer.parseInt(environ.getOrDefault("LOADTEST_MEDIA_PORT_BASE", "30000")));
+        portConfig.setPortCount(concurrency * 2 + 2);
+        portPool = portConfig.createPool();
+        sipProvider = new SipProvider(sipConfig, new ConfiguredScheduler(new SchedulerConfig()));
+    }
+
+    /**
+     * Runs the load test to completion.
+     * @throws InterruptedException If interrupted while placing or waiting for calls.
+     */
+    public void run() throws InterruptedException {
+        if (uaConfig.isRegister()) {
+            log.info("Registering with {}...", uaConfig.getRegistrar());
+            registrationClient = new RegistrationClient(sipProvider, uaConfig, this);
+            registrationClient.loopRegister(uaConfig);
+        }
+        log.info("Placing {} call(s) to {} at {} calls/s, {} concurrent, {} s each",
+                totalCalls, target, callsPerSecond, concurrency, callMillis / 1000);
+        if (sampler != null) {
+            sampler.sample();
+        }
+        startNanos = System.nanoTime();
+        metrics.sampleActiveCalls();
+        scheduler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::logProgress, reportIntervalMillis, reportIntervalMillis,
+                TimeUnit.MILLISECONDS);
+
+        Semaphore slots = new Semaphore(concurrency);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / callsPerSecond);
+        long nextCallNanos = System.nanoTime();
+        long turnGapMillis = Long.parseLong(environ.getOrDefault("LOADTEST_TURN_GAP_MS", "1500"));
+        long turnTimeoutMillis = Long.parseLong(environ.getOrDefault("LOADTEST_TURN_TIMEOUT_MS", "15000"));
+        int speechThreshold = Integer.parseInt(environ.getOrDefault("LOADTEST_SPEECH_THRESHOLD", "300"));
+        long responseEndMillis = Long.parseLong(environ.getOrDefault("LOADTEST_RESPONSE_END_MS", "800"));
+        for (int i = 1; i <= totalCalls; i++) {
+            slots.acquire();
+            long wait = nextCallNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            nextCallNanos += intervalNanos;
+            ScriptedAudioSource source = new ScriptedAudioSource(utterances, metrics, turnGapMillis, turnTimeoutMillis);
+            ResponseAudioMonitor monitor = new ResponseAudioMonitor(metrics, source, speechThreshold,
+                    responseEndMillis);
+            SyntheticCall call = new SyntheticCall(i, metrics, source, monitor, scheduler, callMillis,
+                    setupTimeoutMillis);
+            try {
+                call.start(sipProvider, portPool, uaConfig, target, createMediaDescs())
+                        .whenComplete((c, e) -> slots.release());
+            } catch (RuntimeException e) {
+                log.error("Could not place call {}", i, e);
+                metrics.callFailed(e.getClass().getSimpleName());
+                slots.release();
+            }
+        }
+        if (!slots.tryAcquire(concurrency, callMillis + setupTimeoutMillis + 10000, TimeUnit.MILLISECONDS)) {
+            log.warn("Timed out waiting for {} call(s) to end", concurrency - slots.availablePermits());
+        }
+        sample();
+        logReport();
+        if (registrationClient != null) {
+            registrationClient.unregister();
+            registrationClient.halt();
+        }
+        scheduler.shutdownNow();
+        sipProvider.halt();
+    }
+
+    @Override
+    public void onRegistrationSuccess(RegistrationClient rc, NameAddress target, NameAddress contact, int expires,
+                                      int renewTime, String result) {
+        log.info("Registered {} ({})", contact, result);
+    }
+
+    @Override
+    public void onRegistrationFailure(RegistrationClient rc, NameAddress target, NameAddress contact,
+                                      String result) {
+        log.warn("Registration of {} failed: {}", contact, result);
+    }
+
+    private void sample() {
+        metrics.sampleActiveCalls();
+        if (sampler != null) {
+            sampler.sample();
+        }
+    }
+
+    private void logProgress() {
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        StringBuilder sb = new StringBuilder(String.format(
+                "[%5.0fs] active %d, answered %d/%d, failed %d, ttfa p50 %d ms, inter-turn p50 %d ms, underruns %d",
+                elapsed, metrics.getActiveCalls(), metrics.getAnswered(), metrics.getAttempted(), metrics.getFailed(),
+                metrics.getTimeToFirstAudio().percentile(50), metrics.getInterTurnLatency().percentile(50),
+                metrics.getUnderruns()));
+        if (sampler != null) {
+            sb.append(String.format(", gateway cpu %.1f s, rss %d MB, %d threads",
+                    sampler.getCpuSeconds(), sampler.getRssKb() / 1024, sampler.getThreads()));
+        }
+        log.info(sb.toString());
+    }
+
+    private void logReport() {
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        double callSeconds = metrics.getCallSeconds();
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n========================================\n");
+        sb.append("LOAD TEST REPORT\n");
+        sb.append("========================================\n");
+        sb.append(String.format("  %-22s: %.1f s%n", "duration", elapsed));
+        sb.append(String.format("  %-22s: %d attempted, %d answered, %d failed, %d completed%n", "calls",
+                metrics.getAttempted(), metrics.getAnswered(), metrics.getFailed(), metrics.getCompleted()));
+        sb.append(String.format("  %-22s: %.2f answered/s%n", "call rate", metrics.getAnswered() / elapsed));
+        sb.append(String.format("  %-22s: %d%n", "peak concurrent", metrics.getPeakActiveCalls()));
+        sb.append(String.format("  %-22s: %.0f%n", "call-seconds", callSeconds));
+        for (Map.Entry<String, AtomicLong> reason : metrics.getFailureReasons().entrySet()) {
+            sb.append(String.format("  %-22s: %d%n", "failed: " + reason.getKey(), reason.getValue().get()));
+        }
+        sb.append("  ").append(metrics.getSetupLatency()).append('\n');
+        sb.append("  ").append(metrics.getTimeToFirstAudio()).append('\n');
+        sb.append("  ").append(metrics.getInterTurnLatency()).append('\n');
+        sb.append("  ").append(metrics.getUnderrunGaps()).append('\n');
+        sb.append(String.format("  %-22s: %d sent, %d responses, %d unanswered%n", "turns",
+                metrics.getTurns(), metrics.getResponses(), metrics.getUnansweredTurns()));
+        sb.append(String.format("  %-22s: %d (%.2f per call-minute)%n", "underruns", metrics.getUnderruns(),
+                callSeconds > 0 ? metrics.getUnderruns() * 60 / callSeconds : 0));
+        sb.append(String.format("  %-22s: %d%n", "calls without audio", metrics.getNoAudioCalls()));
+        if (sampler != null) {
+            double cpuSeconds = sampler.getCpuSeconds();
+            int peak = Math.max(1, metrics.getPeakActiveCalls());
+            sb.append(String.format("  %-22s: %.1f s (%.1f ms per call-second)%n", "gateway cpu", cpuSeconds,
+                    callSeconds > 0 ? cpuSeconds * 1000 / callSeconds : 0));
+            if (cpuSeconds > 0) {
+                sb.append(String.format("  %-22s: %.0f concurrent calls at 100%% of one vCPU%n", "calls per vCPU",
+                        callSeconds / cpuSeconds));
+            }
+            sb.append(String.format("  %-22s: baseline %d MB, peak %d MB (%.1f MB per concurrent call)%n",
+                    "gateway rss", sampler.getBaselineRssKb() / 1024, sampler.getPeakRssKb() / 1024,
+                    (sampler.getPeakRssKb() - sampler.getBaselineRssKb()) / 1024.0 / peak));
+            sb.append(String.format("  %-22s: peak %d%n", "gateway threads", sampler.getPeakThreads()));
+        }
+        sb.append("========================================");
+        log.info(sb.toString());
+    }
+
+    /**
+     * Offers PCMU only, like the gateway.
+     */
+    private static MediaDesc[] createMediaDescs() {
+        return new MediaDesc[]{new MediaDesc("audio",
+                4000,
+                "RTP/AVP",
+                new MediaSpec[]{
+                        new MediaSpec(0,
+                                "PCMU",
+                                8000,
+                                1,
+                                160)})};
+    }
+
+    private static boolean isConfigured(String str) {
+        return str != null && !str.isEmpty();
+    }
+
+    /**
+     * The main method.  Configured through LOADTEST_* environment variables, see the README.
+     */
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(System.getenv()).run();
+        System.exit(0);
+    }
+}
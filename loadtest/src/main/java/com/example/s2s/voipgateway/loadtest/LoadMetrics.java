@@ -0,0 +1,164 @@
+package com.example.s2s.voipgateway.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency distributions shared by every synthetic call of a load run.
+ */
+public class LoadMetrics {
+    private final LatencyStats setupLatency = new LatencyStats("setup (INVITE->200)");
+    private final LatencyStats timeToFirstAudio = new LatencyStats("time to first audio");
+    private final LatencyStats interTurnLatency = new LatencyStats("inter-turn latency");
+    private final LatencyStats underrunGaps = new LatencyStats("underrun gap");
+    private final AtomicLong attempted = new AtomicLong();
+    private final AtomicLong answered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong noAudioCalls = new AtomicLong();
+    private final AtomicLong turns = new AtomicLong();
+    private final AtomicLong unansweredTurns = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicInteger activeCalls = new AtomicInteger();
+    private final AtomicInteger peakActiveCalls = new AtomicInteger();
+    private final Map<String, AtomicLong> failureReasons = new ConcurrentHashMap<>();
+    private double callSeconds = 0;
+    private long lastSampleNanos = 0;
+
+    public void callAttempted() {
+        attempted.incrementAndGet();
+    }
+
+    public void callAnswered(long setupMillis) {
+        answered.incrementAndGet();
+        setupLatency.record(setupMillis);
+        int active = activeCalls.incrementAndGet();
+        peakActiveCalls.accumulateAndGet(active, Math::max);
+    }
+
+    public void callFailed(String reason) {
+        failed.incrementAndGet();
+        failureReasons.computeIfAbsent(reason == null ? "unknown" : reason, r -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Records the end of an answered call.
+     * @param receivedAudio Whether any audio was received from the gateway.
+     */
+    public void callEnded(boolean receivedAudio) {
+        completed.incrementAndGet();
+        activeCalls.decrementAndGet();
+        if (!receivedAudio) {
+            noAudioCalls.incrementAndGet();
+        }
+    }
+
+    public void firstAudio(long millis) {
+        timeToFirstAudio.record(millis);
+    }
+
+    public void turnSent() {
+        turns.incrementAndGet();
+    }
+
+    public void turnUnanswered() {
+        unansweredTurns.incrementAndGet();
+    }
+
+    public void responseStarted(long interTurnMillis) {
+        responses.incrementAndGet();
+        if (interTurnMillis >= 0) {
+            interTurnLatency.record(interTurnMillis);
+        }
+    }
+
+    public void underrun(long gapMillis) {
+        underruns.incrementAndGet();
+        underrunGaps.record(gapMillis);
+    }
+
+    /**
+     * Integrates the number of active calls over time.  Called periodically by the generator.
+     */
+    public synchronized void sampleActiveCalls() {
+        long now = System.nanoTime();
+        if (lastSampleNanos != 0) {
+            callSeconds += activeCalls.get() * (now - lastSampleNanos) / 1e9;
+        }
+        lastSampleNanos = now;
+    }
+
+    /**
+     * Returns the accumulated call-seconds, i.e. the integral of concurrent answered calls over time.
+     */
+    public synchronized double getCallSeconds() {
+        return callSeconds;
+    }
+
+    public long getAttempted() {
+        return attempted.get();
+    }
+
+    public long getAnswered() {
+        return answered.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public int getActiveCalls() {
+        return activeCalls.get();
+    }
+
+    public int getPeakActiveCalls() {
+        return peakActiveCalls.get();
+    }
+
+    public long getNoAudioCalls() {
+        return noAudioCalls.get();
+    }
+
+    public long getTurns() {
+        return turns.get();
+    }
+
+    public long getUnansweredTurns() {
+        return unansweredTurns.get();
+    }
+
+    public long getResponses() {
+        return responses.get();
+    }
+
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    public Map<String, AtomicLong> getFailureReasons() {
+        return failureReasons;
+    }
+
+    public LatencyStats getSetupLatency() {
+        return setupLatency;
+    }
+
+    public LatencyStats getTimeToFirstAudio() {
+        return timeToFirstAudio;
+    }
+
+    public LatencyStats getInterTurnLatency() {
+        return interTurnLatency;
+    }
+
+    public LatencyStats getUnderrunGaps() {
+        return underrunGaps;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.s2s.voipgateway.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Samples CPU time and resident memory of the gateway process from /proc, when the generator runs on the same
+ * Linux host (or container namespace) as the gateway.
+ */
+public class ProcessSampler {
+    private static final Logger log = LoggerFactory.getLogger(ProcessSampler.class);
+    private static final int UTIME_FIELD = 11; // fields 14 and 15 of /proc/<pid>/stat, counted after the command
+    private static final int STIME_FIELD = 12;
+    private final Path statPath;
+    private final Path statusPath;
+    private final long ticksPerSecond;
+    private double baselineCpuSeconds = -1;
+    private long baselineRssKb = -1;
+    private double lastCpuSeconds = 0;
+    private long lastRssKb = 0;
+    private long peakRssKb = 0;
+    private int lastThreads = 0;
+    private int peakThreads = 0;
+
+    /**
+     * Creates a sampler for the given process.
+     * @param pid The gateway process id.
+     * @param ticksPerSecond The kernel's USER_HZ, normally 100.
+     */
+    public ProcessSampler(long pid, long ticksPerSecond) {
+        this.statPath = Paths.get("/proc", String.valueOf(pid), "stat");
+        this.statusPath = Paths.get("/proc", String.valueOf(pid), "status");
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    /**
+     * Takes a sample.  The first successful sample is the baseline.
+     * @return true if the process could be read.
+     */
+    public synchronized boolean sample() {
+        try {
+            String stat = new String(Files.readAllBytes(statPath), StandardCharsets.US_ASCII);
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            lastCpuSeconds = (Long.parseLong(fields[UTIME_FIELD]) + Long.parseLong(fields[STIME_FIELD]))
+                    / (double) ticksPerSecond;
+            for (String line : Files.readAllLines(statusPath, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    lastRssKb = Long.parseLong(line.substring(6).replace("kB", "").trim());
+                } else if (line.startsWith("Threads:")) {
+                    lastThreads = Integer.parseInt(line.substring(8).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not sample gateway process: {}", e.toString());
+            return false;
+        }
+        if (baselineCpuSeconds < 0) {
+            baselineCpuSeconds = lastCpuSeconds;
+            baselineRssKb = lastRssKb;
+        }
+        peakRssKb = Math.max(peakRssKb, lastRssKb);
+        peakThreads = Math.max(peakThreads, lastThreads);
+        return true;
+    }
+
+    /**
+     * Returns the CPU seconds used by the gateway since the baseline sample.
+     */
+    public synchronized double getCpuSeconds() {
+        return baselineCpuSeconds < 0 ? 0 : lastCpuSeconds - baselineCpuSeconds;
+    }
+
+    public synchronized long getBaselineRssKb() {
+        return baselineRssKb;
+    }
+
+    public synchronized long getRssKb() {
+        return lastRssKb;
+    }
+
+    public synchronized long getPeakRssKb() {
+        return peakRssKb;
+    }
+
+    public synchronized int getThreads() {
+        return lastThreads;
+    }
+
+    public synchronized int getPeakThreads() {
+        return peakThreads;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.s2s.voipgateway.loadtest;
+
+import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the gateway's ULAW audio for one call and turns it into conversation timing.
+ *
+ * Audio is analysed in 20 ms frames.  A frame is speech when its mean absolute amplitude exceeds the threshold.
+ * A response starts at the first speech frame and ends after the configured run of quiet frames.  A short quiet
+ * gap inside a response made only of the gateway's fill byte (what its sender emits when the outbound queue runs
+ * dry) is counted as an underrun; quiet gaps with any real audio in them are taken to be pauses in the speech.
+ */
+public class ResponseAudioMonitor extends OutputStream {
+    private static final int FRAME_BYTES = 160; // 20 ms of 8 kHz ULAW
+    private static final byte GATEWAY_FILL = 127;
+    private final LoadMetrics metrics;
+    private final ScriptedAudioSource source;
+    private final int speechThreshold;
+    private final long responseEndNanos;
+    private final byte[] frame = new byte[FRAME_BYTES];
+    private final byte[] pcm = new byte[FRAME_BYTES * 2];
+    private int framePosition = 0;
+    private volatile long acceptedNanos = 0;
+    private boolean firstAudio = false;
+    private boolean inResponse = false;
+    private boolean speaking = false;
+    private boolean gapIsFill = false;
+    private long silenceStartNanos = 0;
+    private long frames = 0;
+
+    /**
+     * Creates a new monitor.
+     * @param metrics The run metrics.
+     * @param source The caller's audio source, told when responses start and end.
+     * @param speechThreshold Mean absolute 16 bit amplitude above which a frame is speech.
+     * @param responseEndMillis Quiet time that ends a response.
+     */
+    public ResponseAudioMonitor(LoadMetrics metrics, ScriptedAudioSource source, int speechThreshold,
+                                long responseEndMillis) {
+        this.metrics = metrics;
+        this.source = source;
+        this.speechThreshold = speechThreshold;
+        this.responseEndNanos = TimeUnit.MILLISECONDS.toNanos(responseEndMillis);
+    }
+
+    /**
+     * Marks the moment the call was answered, the reference for time-to-first-audio.
+     * @param nanos The answer time.
+     */
+    public void start(long nanos) {
+        acceptedNanos = nanos;
+    }
+
+    /**
+     * Returns true if at least one frame of audio was received.
+     */
+    public synchronized boolean hasReceivedAudio() {
+        return frames > 0;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        long now = System.nanoTime();
+        while (len > 0) {
+            int n = Math.min(len, FRAME_BYTES - framePosition);
+            System.arraycopy(b, off, frame, framePosition, n);
+            framePosition += n;
+            off += n;
+            len -= n;
+            if (framePosition == FRAME_BYTES) {
+                onFrame(now);
+                framePosition = 0;
+            }
+        }
+    }
+
+    private void onFrame(long now) {
+        frames++;
+        boolean fill = true;
+        for (byte value : frame) {
+            if (value != GATEWAY_FILL) {
+                fill = false;
+                break;
+            }
+        }
+        if (!fill && isSpeech()) {
+            if (!inResponse) {
+                inResponse = true;
+                onResponseStart(now);
+            } else if (!speaking && gapIsFill) {
+                metrics.underrun(TimeUnit.NANOSECONDS.toMillis(now - silenceStartNanos));
+            }
+            speaking = true;
+            return;
+        }
+        if (speaking) {
+            speaking = false;
+            silenceStartNanos = now;
+            gapIsFill = fill;
+        } else {
+            gapIsFill &= fill;
+        }
+        if (inResponse && now - silenceStartNanos >= responseEndNanos) {
+            inResponse = false;
+            source.onResponseEnd(now);
+        }
+    }
+
+    private void onResponseStart(long now) {
+        if (!firstAudio && acceptedNanos != 0) {
+            firstAudio = true;
+            metrics.firstAudio(TimeUnit.NANOSECONDS.toMillis(now - acceptedNanos));
+        }
+        long utteranceEnd = source.onResponseStart(now);
+        metrics.responseStarted(utteranceEnd != 0 ? TimeUnit.NANOSECONDS.toMillis(now - utteranceEnd) : -1);
+    }
+
+    private boolean isSpeech() {
+        UlawToPcmTranscoder.convert(frame, 0, FRAME_BYTES, pcm, 0);
+        long sum = 0;
+        for (int i = 0; i < pcm.length; i += 2) {
+            sum += Math.abs((short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8)));
+        }
+        return sum / FRAME_BYTES > speechThreshold;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.s2s.voipgateway.loadtest;
+
+import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The caller's side of a synthetic conversation, read by the RTP sender at real-time pace.
+ *
+ * Plays the utterances in turn with silence in between.  The next utterance starts once the gateway's response to
+ * the previous one has finished (or the turn timed out) and the line has been quiet for the turn gap, so the
+ * generator does not barge in on the bot.  Never blocks: when there is nothing to say it returns ULAW silence.
+ */
+public class ScriptedAudioSource extends InputStream {
+    private static final byte SILENCE = (byte) 0xFF;
+    private final List<byte[]> utterances;
+    private final LoadMetrics metrics;
+    private final long turnGapNanos;
+    private final long turnTimeoutNanos;
+    private byte[] current;
+    private int position = 0;
+    private int turn = 0;
+    private boolean responding = false;
+    private long quietSinceNanos = 0;
+    private long utteranceEndNanos = 0;
+
+    /**
+     * Creates a new source.
+     * @param utterances ULAW utterances, played round-robin.
+     * @param metrics The run metrics.
+     * @param turnGapMillis Quiet time before the next utterance.
+     * @param turnTimeoutMillis Time to wait for a response before speaking again.
+     */
+    public ScriptedAudioSource(List<byte[]> utterances, LoadMetrics metrics, long turnGapMillis,
+                               long turnTimeoutMillis) {
+        this.utterances = utterances;
+        this.metrics = metrics;
+        this.turnGapNanos = TimeUnit.MILLISECONDS.toNanos(turnGapMillis);
+        this.turnTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(turnTimeoutMillis);
+    }
+
+    /**
+     * Loads a WAV file, from the file system or the classpath, as 8 kHz ULAW.
+     * @param filename The file name.
+     * @return The ULAW audio.
+     * @throws IOException If the file cannot be found or decoded.
+     */
+    public static byte[] loadUtterance(String filename) throws IOException {
+        File file = new File(filename);
+        InputStream is = file.exists()
+                ? new FileInputStream(file)
+                : ScriptedAudioSource.class.getClassLoader().getResourceAsStream(filename);
+        if (is == null) {
+            throw new FileNotFoundException("Could not find " + filename);
+        }
+        try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(is));
+             AudioInputStream pcm = AudioSystem.getAudioInputStream(
+                     new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 8000, 16, 1, 2, 8000, false),
+                     audioInputStream)) {
+            return PcmToULawTranscoder.transcodeBytes(pcm.readAllBytes());
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Unsupported audio file " + filename, e);
+        }
+    }
+
+    /**
+     * Called by the response monitor when the gateway starts speaking.
+     * @param nowNanos The onset time.
+     * @return The end time of the utterance this response answers, or 0 if there is none.
+     */
+    public synchronized long onResponseStart(long nowNanos) {
+        responding = true;
+        long answered = utteranceEndNanos;
+        utteranceEndNanos = 0;
+        return answered;
+    }
+
+    /**
+     * Called by the response monitor when the gateway's response has ended.
+     * @param nowNanos The time the response went quiet.
+     */
+    public synchronized void onResponseEnd(long nowNanos) {
+        responding = false;
+        quietSinceNanos = nowNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        read(b, 0, 1);
+        return b[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+        long now = System.nanoTime();
+        if (current == null && readyToSpeak(now)) {
+            current = utterances.get(turn++ % utterances.size());
+            position = 0;
+        }
+        int n = 0;
+        if (current != null) {
+            n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            if (position == current.length) {
+                current = null;
+                utteranceEndNanos = now;
+                quietSinceNanos = now;
+                metrics.turnSent();
+            }
+        }
+        Arrays.fill(b, off + n, off + len, SILENCE);
+        return len;
+    }
+
+    private boolean readyToSpeak(long now) {
+        if (quietSinceNanos == 0) {
+            quietSinceNanos = now;
+        }
+        if (responding) {
+            return false;
+        }
+        if (utteranceEndNanos != 0) {
+            if (now - utteranceEndNanos < turnTimeoutNanos) {
+                return false;
+            }
+            metrics.turnUnanswered();
+            utteranceEndNanos = 0;
+        }
+        return now - quietSinceNanos >= turnGapNanos;
+    }
+}
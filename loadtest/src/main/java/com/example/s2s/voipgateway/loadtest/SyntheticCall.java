@@ -0,0 +1,177 @@
+package com.example.s2s.voipgateway.loadtest;
+
+import org.mjsip.media.AudioStreamer;
+import org.mjsip.media.FlowSpec;
+import org.mjsip.media.MediaDesc;
+import org.mjsip.media.MediaStreamer;
+import org.mjsip.media.RtpStreamReceiver;
+import org.mjsip.media.RtpStreamReceiverListener;
+import org.mjsip.media.RtpStreamSender;
+import org.mjsip.media.RtpStreamSenderListener;
+import org.mjsip.media.StreamerOptions;
+import org.mjsip.media.rx.AudioReceiver;
+import org.mjsip.media.rx.AudioRxHandle;
+import org.mjsip.media.rx.RtpAudioRxHandler;
+import org.mjsip.media.rx.RtpReceiverOptions;
+import org.mjsip.media.tx.AudioTXHandle;
+import org.mjsip.media.tx.AudioTransmitter;
+import org.mjsip.media.tx.RtpAudioTxHandle;
+import org.mjsip.media.tx.RtpSenderOptions;
+import org.mjsip.pool.PortPool;
+import org.mjsip.rtp.RtpControl;
+import org.mjsip.rtp.RtpPayloadFormat;
+import org.mjsip.sip.address.NameAddress;
+import org.mjsip.sip.provider.SipProvider;
+import org.mjsip.ua.MediaAgent;
+import org.mjsip.ua.UAConfig;
+import org.mjsip.ua.UserAgent;
+import org.mjsip.ua.UserAgentListenerAdapter;
+import org.mjsip.ua.streamer.StreamerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.UdpSocket;
+import org.zoolu.sound.CodecType;
+import org.zoolu.util.Encoder;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One synthetic call: INVITEs the gateway, streams the scripted caller audio over RTP and monitors the audio sent
+ * back until the call is hung up after its configured duration.
+ */
+public class SyntheticCall extends UserAgentListenerAdapter implements StreamerFactory {
+    private static final Logger log = LoggerFactory.getLogger(SyntheticCall.class);
+    private final int id;
+    private final LoadMetrics metrics;
+    private final ScriptedAudioSource source;
+    private final ResponseAudioMonitor monitor;
+    private final ScheduledExecutorService scheduler;
+    private final long callMillis;
+    private final long setupTimeoutMillis;
+    private final CompletableFuture<SyntheticCall> completion = new CompletableFuture<>();
+    private UserAgent ua;
+    private long inviteNanos;
+    private volatile boolean answered = false;
+
+    public SyntheticCall(int id, LoadMetrics metrics, ScriptedAudioSource source, ResponseAudioMonitor monitor,
+                         ScheduledExecutorService scheduler, long callMillis, long setupTimeoutMillis) {
+        this.id = id;
+        this.metrics = metrics;
+        this.source = source;
+        this.monitor = monitor;
+        this.scheduler = scheduler;
+        this.callMillis = callMillis;
+        this.setupTimeoutMillis = setupTimeoutMillis;
+    }
+
+    /**
+     * Places the call.
+     * @param sipProvider The SIP provider.
+     * @param portPool The media port pool.
+     * @param uaConfig The caller's configuration.
+     * @param target The gateway address.
+     * @param mediaDescs The offered media.
+     * @return Completes when the call has ended, successfully or not.
+     */
+    public CompletableFuture<SyntheticCall> start(SipProvider sipProvider, PortPool portPool, UAConfig uaConfig,
+                                                  NameAddress target, MediaDesc[] mediaDescs) {
+        metrics.callAttempted();
+        inviteNanos = System.nanoTime();
+        ua = new UserAgent(sipProvider, portPool, uaConfig, this);
+        ua.call(target, new MediaAgent(mediaDescs, this));
+        scheduler.schedule(() -> {
+            if (!answered && !completion.isDone()) {
+                fail("setup timeout");
+                ua.hangup();
+            }
+        }, setupTimeoutMillis, TimeUnit.MILLISECONDS);
+        return completion;
+    }
+
+    @Override
+    public synchronized void onUaCallAccepted(UserAgent ua) {
+        long now = System.nanoTime();
+        if (completion.isDone()) {
+            return;
+        }
+        answered = true;
+        monitor.start(now);
+        metrics.callAnswered(TimeUnit.NANOSECONDS.toMillis(now - inviteNanos));
+        log.debug("Call {} answered", id);
+        scheduler.schedule(this::hangup, callMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onUaCallFailed(UserAgent ua, String reason) {
+        fail(reason);
+    }
+
+    @Override
+    public void onUaCallClosed(UserAgent ua) {
+        finish();
+    }
+
+    @Override
+    public MediaStreamer createMediaStreamer(Executor executor, FlowSpec flowSpec) {
+        AudioTransmitter tx = new AudioTransmitter() {
+            @Override
+            public AudioTXHandle createSender(RtpSenderOptions options, UdpSocket udp_socket,
+                                              AudioFormat audio_format, CodecType codec, int payload_type,
+                                              RtpPayloadFormat payloadFormat, int sample_rate, int channels,
+                                              Encoder additional_encoder, long packet_time, int packet_size,
+                                              String remote_addr, int remote_port, RtpStreamSenderListener listener,
+                                              RtpControl rtpControl) {
+                return new RtpAudioTxHandle(new RtpStreamSender(options, source, true, payload_type, payloadFormat,
+                        sample_rate, channels, packet_time, packet_size, additional_encoder, udp_socket,
+                        remote_addr, remote_port, rtpControl, listener));
+            }
+        };
+        AudioReceiver rx = new AudioReceiver() {
+            @Override
+            public AudioRxHandle createReceiver(RtpReceiverOptions options, UdpSocket socket,
+                                                AudioFormat audio_format, CodecType codec, int payload_type,
+                                                RtpPayloadFormat payloadFormat, int sample_rate, int channels,
+                                                Encoder additional_decoder, RtpStreamReceiverListener listener) {
+                return new RtpAudioRxHandler(new RtpStreamReceiver(options, monitor, additional_decoder,
+                        payloadFormat, socket, listener));
+            }
+        };
+        return new AudioStreamer(executor, flowSpec, tx, rx, StreamerOptions.builder().build());
+    }
+
+    private void hangup() {
+        if (!completion.isDone()) {
+            ua.hangup();
+            finish();
+        }
+    }
+
+    private synchronized void fail(String reason) {
+        if (completion.isDone()) {
+            return;
+        }
+        log.warn("Call {} failed: {}", id, reason);
+        if (answered) {
+            metrics.callEnded(monitor.hasReceivedAudio());
+        }
+        metrics.callFailed(reason);
+        completion.complete(this);
+    }
+
+    private synchronized void finish() {
+        if (completion.isDone()) {
+            return;
+        }
+        if (answered) {
+            metrics.callEnded(monitor.hasReceivedAudio());
+        } else {
+            metrics.callFailed("closed before answer");
+        }
+        log.debug("Call {} ended", id);
+        completion.complete(this);
+    }
+}
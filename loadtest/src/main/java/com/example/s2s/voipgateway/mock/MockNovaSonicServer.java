@@ -0,0 +1,312 @@
+package com.example.s2s.voipgateway.mock;
+
+import com.example.s2s.voipgateway.constants.SonicAudioConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.eventstream.HeaderValue;
+import software.amazon.eventstream.Message;
+import software.amazon.eventstream.MessageDecoder;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Nova Sonic InvokeModelWithBidirectionalStream API, for load and latency testing without
+ * Bedrock.
+ *
+ * Serves HTTP/2 over cleartext (prior knowledge, as the SDK's Netty client uses for http:// endpoints) and speaks
+ * the AWS event stream framing: signed input chunks are unwrapped and handed to a {@link MockNovaSonicSession},
+ * whose scripted output events are sent back as unsigned chunk events.  Point the gateway at it with
+ * NOVA_ENDPOINT=http://host:port (any AWS credentials are accepted).
+ */
+public class MockNovaSonicServer {
+    private static final Logger log = LoggerFactory.getLogger(MockNovaSonicServer.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String STREAM_PATH_SUFFIX = "/invoke-with-bidirectional-stream";
+    private final int port;
+    private final Script script;
+    private final EventLoopGroup group;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private Channel serverChannel;
+
+    /**
+     * The scripted behaviour of every mock session.
+     */
+    public static class Script {
+        private final long firstAudioMillis;
+        private final int turnMillis;
+        private final int responseAudioMillis;
+        private final int chunkMillis;
+        private final long chunkIntervalMillis;
+        private final int toolEvery;
+        private final String toolName;
+        private final boolean greeting;
+        private final String audioChunk;
+
+        public Script(long firstAudioMillis, int turnMillis, int responseAudioMillis, int chunkMillis,
+                      long chunkIntervalMillis, int toolEvery, String toolName, boolean greeting) {
+            this.firstAudioMillis = firstAudioMillis;
+            this.turnMillis = turnMillis;
+            this.responseAudioMillis = responseAudioMillis;
+            this.chunkMillis = chunkMillis;
+            this.chunkIntervalMillis = chunkIntervalMillis;
+            this.toolEvery = toolEvery;
+            this.toolName = toolName;
+            this.greeting = greeting;
+            this.audioChunk = MockNovaSonicSession.renderTone(SonicAudioConfig.SAMPLE_RATE, chunkMillis);
+        }
+
+        /**
+         * Creates a script configured from the MOCK_NOVA_* environment variables.
+         * @return The script
+         */
+        public static Script fromEnvironment() {
+            Map<String, String> environ = System.getenv();
+            return new Script(
+                    Long.parseLong(environ.getOrDefault("MOCK_NOVA_FIRST_AUDIO_MS", "600")),
+                    Integer.parseInt(environ.getOrDefault("MOCK_NOVA_TURN_MS", "3000")),
+                    Integer.parseInt(environ.getOrDefault("MOCK_NOVA_RESPONSE_AUDIO_MS", "2000")),
+                    Integer.parseInt(environ.getOrDefault("MOCK_NOVA_CHUNK_MS", "100")),
+                    Long.parseLong(environ.getOrDefault("MOCK_NOVA_CHUNK_INTERVAL_MS", "50")),
+                    Integer.parseInt(environ.getOrDefault("MOCK_NOVA_TOOL_EVERY", "0")),
+                    environ.getOrDefault("MOCK_NOVA_TOOL_NAME", "getDateTool"),
+                    environ.getOrDefault("MOCK_NOVA_GREETING", "true").equalsIgnoreCase("true"));
+        }
+
+        public long getFirstAudioMillis() {
+            return firstAudioMillis;
+        }
+
+        public int getTurnMillis() {
+            return turnMillis;
+        }
+
+        public int getChunkCount() {
+            return Math.max(1, responseAudioMillis / chunkMillis);
+        }
+
+        public long getChunkIntervalMillis() {
+            return chunkIntervalMillis;
+        }
+
+        public int getToolEvery() {
+            return toolEvery;
+        }
+
+        public String getToolName() {
+            return toolName;
+        }
+
+        public boolean isGreeting() {
+            return greeting;
+        }
+
+        public String getAudioChunk() {
+            return audioChunk;
+        }
+    }
+
+    public MockNovaSonicServer(int port, Script script, int schedulerThreads) {
+        this.port = port;
+        this.script = script;
+        this.group = new NioEventLoopGroup();
+        this.scheduler = Executors.newScheduledThreadPool(schedulerThreads, r -> {
+            Thread t = new Thread(r, "mock-nova-script");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Binds the server socket.
+     * @return The bound port.
+     * @throws InterruptedException If interrupted while binding.
+     */
+    public int start() throws InterruptedException {
+        serverChannel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(
+                                Http2FrameCodecBuilder.forServer()
+                                        .initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(10000))
+                                        .build(),
+                                new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+                                    @Override
+                                    protected void initChannel(Http2StreamChannel stream) {
+                                        stream.pipeline().addLast(new StreamHandler());
+                                    }
+                                }));
+                    }
+                })
+                .bind(port).sync().channel();
+        int boundPort = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+        log.info("Mock Nova Sonic server listening on http://localhost:{}", boundPort);
+        return boundPort;
+    }
+
+    /**
+     * Returns the number of open mock streams.
+     */
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        scheduler.shutdownNow();
+        group.shutdownGracefully();
+    }
+
+    /**
+     * Handles one InvokeModelWithBidirectionalStream request.
+     */
+    private class StreamHandler extends ChannelInboundHandlerAdapter {
+        private final MessageDecoder decoder = new MessageDecoder(this::onMessage);
+        private MockNovaSonicSession session;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof Http2HeadersFrame) {
+                    onHeaders(ctx, (Http2HeadersFrame) msg);
+                } else if (msg instanceof Http2DataFrame && session != null) {
+                    Http2DataFrame data = (Http2DataFrame) msg;
+                    ByteBuf content = data.content();
+                    byte[] bytes = new byte[content.readableBytes()];
+                    content.readBytes(bytes);
+                    decoder.feed(bytes);
+                    if (data.isEndStream()) {
+                        session.onInputComplete();
+                    }
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (session != null) {
+                session.cancel();
+                activeStreams.decrementAndGet();
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("Mock stream failed", cause);
+            ctx.close();
+        }
+
+        private void onHeaders(ChannelHandlerContext ctx, Http2HeadersFrame frame) {
+            String path = String.valueOf(frame.headers().path());
+            if (session != null || !path.endsWith(STREAM_PATH_SUFFIX)) {
+                ctx.writeAndFlush(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().status("404"), true));
+                return;
+            }
+            Http2Headers headers = new DefaultHttp2Headers()
+                    .status("200")
+                    .set("content-type", "application/vnd.amazon.eventstream")
+                    .set("x-amzn-requestid", UUID.randomUUID().toString());
+            ctx.writeAndFlush(new DefaultHttp2HeadersFrame(headers));
+            Channel channel = ctx.channel();
+            session = new MockNovaSonicSession(script, scheduler,
+                    json -> write(channel, json),
+                    () -> channel.writeAndFlush(new DefaultHttp2DataFrame(true)));
+            log.info("Mock stream opened on {} ({} active)", path, activeStreams.incrementAndGet());
+            if (frame.isEndStream()) {
+                session.onInputComplete();
+            }
+        }
+
+        /**
+         * Unwraps a signed frame and hands the chunk's JSON event to the session.
+         */
+        private void onMessage(Message message) {
+            if (message.getHeaders().containsKey(":chunk-signature")) {
+                if (message.getPayload().length == 0) {
+                    return; // the empty signed frame that ends the input stream
+                }
+                message = Message.decode(ByteBuffer.wrap(message.getPayload()));
+            }
+            HeaderValue eventType = message.getHeaders().get(":event-type");
+            if (eventType == null || !"chunk".equals(eventType.getString())) {
+                return;
+            }
+            try {
+                session.onEvent(OBJECT_MAPPER.readTree(message.getPayload()).path("bytes").binaryValue());
+            } catch (Exception e) {
+                log.warn("Ignoring undecodable chunk", e);
+            }
+        }
+
+        private void write(Channel channel, String json) {
+            if (!channel.isActive()) {
+                return;
+            }
+            Map<String, HeaderValue> headers = new HashMap<>();
+            headers.put(":message-type", HeaderValue.fromString("event"));
+            headers.put(":event-type", HeaderValue.fromString("chunk"));
+            headers.put(":content-type", HeaderValue.fromString("application/json"));
+            String payload = "{\"bytes\":\"" + Base64.getEncoder()
+                    .encodeToString(json.getBytes(StandardCharsets.UTF_8)) + "\"}";
+            Message message = new Message(headers, payload.getBytes(StandardCharsets.UTF_8));
+            channel.writeAndFlush(new DefaultHttp2DataFrame(Unpooled.wrappedBuffer(message.toByteBuffer())));
+        }
+    }
+
+    /**
+     * Runs the mock server until the process is stopped.  Listens on MOCK_NOVA_PORT (default 8080).
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> environ = System.getenv();
+        MockNovaSonicServer server = new MockNovaSonicServer(
+                Integer.parseInt(environ.getOrDefault("MOCK_NOVA_PORT", "8080")),
+                Script.fromEnvironment(),
+                Integer.parseInt(environ.getOrDefault("MOCK_NOVA_SCHEDULER_THREADS", "2")));
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "mock-nova-shutdown"));
+        server.serverChannel.closeFuture().sync();
+    }
+}
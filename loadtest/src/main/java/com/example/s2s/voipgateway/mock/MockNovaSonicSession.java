@@ -0,0 +1,229 @@
+package com.example.s2s.voipgateway.mock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Scripted Nova Sonic conversation for one mock bidirectional stream.
+ *
+ * Consumes the JSON input events sent by the gateway and answers every user turn with a text transcript followed
+ * by a tone as audioOutput, after the configured latency.  A user turn ends once enough input audio has been
+ * received; every Nth turn is a toolUse instead, answered with audio once the gateway sends the tool result.
+ */
+public class MockNovaSonicSession {
+    private static final Logger log = LoggerFactory.getLogger(MockNovaSonicSession.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int INPUT_BYTES_PER_MILLI = 16; // 8 kHz, 16 bit, mono
+    private final MockNovaSonicServer.Script script;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<String> sink;
+    private final Runnable onEnd;
+    private final String sessionId = UUID.randomUUID().toString();
+    private final String audioChunk;
+    private String promptName;
+    private String completionId;
+    private long inputAudioBytes = 0;
+    private boolean responding = false;
+    private boolean greeted = false;
+    private boolean ended = false;
+    private int turns = 0;
+
+    /**
+     * Creates a new session.
+     * @param script The conversation script.
+     * @param scheduler Scheduler used to pace responses.
+     * @param sink Receives each output event as JSON.
+     * @param onEnd Invoked once when the output stream should be closed.
+     */
+    public MockNovaSonicSession(MockNovaSonicServer.Script script, ScheduledExecutorService scheduler,
+                                Consumer<String> sink, Runnable onEnd) {
+        this.script = script;
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.onEnd = onEnd;
+        this.audioChunk = script.getAudioChunk();
+    }
+
+    /**
+     * Handles one input event from the gateway.
+     * @param json The event JSON.
+     */
+    public synchronized void onEvent(byte[] json) {
+        if (ended) {
+            return;
+        }
+        JsonNode event;
+        try {
+            event = OBJECT_MAPPER.readTree(json).path("event");
+        } catch (IOException e) {
+            log.warn("Ignoring malformed input event", e);
+            return;
+        }
+        if (!event.fieldNames().hasNext()) {
+            return;
+        }
+        String type = event.fieldNames().next();
+        JsonNode body = event.get(type);
+        switch (type) {
+            case "promptStart":
+                promptName = body.path("promptName").asText();
+                completionId = UUID.randomUUID().toString();
+                send("completionStart", base());
+                break;
+            case "contentStart":
+                if ("AUDIO".equals(body.path("type").asText()) && script.isGreeting() && !greeted) {
+                    greeted = true;
+                    respond();
+                }
+                break;
+            case "audioInput":
+                inputAudioBytes += body.path("content").asText().length() * 3L / 4;
+                if (!responding && inputAudioBytes >= (long) script.getTurnMillis() * INPUT_BYTES_PER_MILLI) {
+                    inputAudioBytes = 0;
+                    respond();
+                }
+                break;
+            case "toolResult":
+                scheduleAnswer(script.getFirstAudioMillis());
+                break;
+            case "sessionEnd":
+                end();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Called when the gateway closes its side of the stream.
+     */
+    public synchronized void onInputComplete() {
+        end();
+    }
+
+    /**
+     * Stops the session without sending anything else, e.g. when the stream was reset.
+     */
+    public synchronized void cancel() {
+        ended = true;
+    }
+
+    /**
+     * Starts the response to a user turn.
+     */
+    private void respond() {
+        turns++;
+        responding = true;
+        if (script.getToolEvery() > 0 && turns % script.getToolEvery() == 0) {
+            scheduler.schedule(this::sendToolUse, script.getFirstAudioMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            scheduleAnswer(script.getFirstAudioMillis());
+        }
+    }
+
+    private void scheduleAnswer(long delayMillis) {
+        scheduler.schedule(this::sendAnswer, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sendToolUse() {
+        if (ended) {
+            return;
+        }
+        String contentId = UUID.randomUUID().toString();
+        send("contentStart", content(contentId, "TOOL").put("role", "TOOL"));
+        send("toolUse", content(contentId, null)
+                .put("toolUseId", UUID.randomUUID().toString())
+                .put("toolName", script.getToolName())
+                .put("content", "{}"));
+        send("contentEnd", content(contentId, "TOOL").put("stopReason", "TOOL_USE"));
+    }
+
+    private synchronized void sendAnswer() {
+        if (ended) {
+            return;
+        }
+        String textId = UUID.randomUUID().toString();
+        send("contentStart", content(textId, "TEXT").put("role", "ASSISTANT"));
+        send("textOutput", content(textId, null).put("role", "ASSISTANT")
+                .put("content", "Respuesta simulada " + turns));
+        send("contentEnd", content(textId, "TEXT").put("stopReason", "END_TURN"));
+
+        String audioId = UUID.randomUUID().toString();
+        send("contentStart", content(audioId, "AUDIO").put("role", "ASSISTANT"));
+        sendAudioChunk(audioId, script.getChunkCount());
+    }
+
+    private synchronized void sendAudioChunk(String contentId, int remaining) {
+        if (ended) {
+            return;
+        }
+        send("audioOutput", content(contentId, null).put("role", "ASSISTANT").put("content", audioChunk));
+        if (remaining > 1) {
+            scheduler.schedule(() -> sendAudioChunk(contentId, remaining - 1), script.getChunkIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            send("contentEnd", content(contentId, "AUDIO").put("stopReason", "END_TURN"));
+            responding = false;
+        }
+    }
+
+    private void end() {
+        if (ended) {
+            return;
+        }
+        if (promptName != null) {
+            send("completionEnd", base().put("stopReason", "END_TURN"));
+        }
+        ended = true;
+        onEnd.run();
+    }
+
+    private ObjectNode base() {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("sessionId", sessionId);
+        node.put("promptName", promptName);
+        node.put("completionId", completionId);
+        return node;
+    }
+
+    private ObjectNode content(String contentId, String type) {
+        ObjectNode node = base().put("contentId", contentId);
+        if (type != null) {
+            node.put("type", type);
+        }
+        return node;
+    }
+
+    private void send(String type, ObjectNode body) {
+        ObjectNode event = OBJECT_MAPPER.createObjectNode();
+        event.putObject("event").set(type, body);
+        sink.accept(event.toString());
+    }
+
+    /**
+     * Renders one chunk of a 440 Hz tone as base64 16 bit PCM.
+     * @param sampleRate The output sample rate.
+     * @param millis The chunk length.
+     * @return The base64 audio.
+     */
+    static String renderTone(int sampleRate, int millis) {
+        int samples = sampleRate * millis / 1000;
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * i / sampleRate) * 8000);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return Base64.getEncoder().encodeToString(pcm);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.s2s.voipgateway;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrent calls to the number of Nova Sonic session slots.
+ *
+ * When every slot is in use a new call either waits in a bounded FIFO queue for up to the queue timeout or is
+ * rejected straight away, so calls in progress keep their sessions and the upstream SBC can fail over.  Calls are
+ * tracked by SIP Call-ID, which also filters out INVITE retransmissions while a call is waiting and lets a CANCEL
+ * take a waiting call out of the queue.
+ */
+public class AdmissionController {
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+    /**
+     * The outcome of an admission request.
+     */
+    public enum Decision {
+        /** A slot was free and the call was admitted. */
+        ADMITTED,
+        /** The call is waiting in the admission queue. */
+        QUEUED,
+        /** The Call-ID is already admitted or queued. */
+        DUPLICATE,
+        /** No slot and no room in the queue. */
+        REJECTED
+    }
+
+    private final int maxCalls;
+    private final int queueSize;
+    private final long queueTimeoutMillis;
+    private final Semaphore slots;
+    private final Set<String> admittedCallIds = ConcurrentHashMap.newKeySet();
+    private final Map<String, Runnable> queuedCalls = new ConcurrentHashMap<>(); // Call-ID -> onCancelled
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final ExecutorService queueExecutor;
+
+    /**
+     * Creates a new admission controller.
+     * @param maxCalls Maximum concurrent calls, 0 disables the limit.
+     * @param queueSize Calls allowed to wait for a slot, 0 rejects immediately.
+     * @param queueTimeoutMillis Maximum time a call waits for a slot.
+     */
+    public AdmissionController(int maxCalls, int queueSize, long queueTimeoutMillis) {
+        this.maxCalls = maxCalls;
+        this.queueSize = queueSize;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.slots = new Semaphore(maxCalls > 0 ? maxCalls : Integer.MAX_VALUE, true);
+        this.queueExecutor = queueSize > 0 ? Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "admission-queue");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+        if (maxCalls > 0) {
+            LOG.info("Admission control enabled: {} call slot(s), queue {} for up to {} ms",
+                    maxCalls, queueSize, queueTimeoutMillis);
+        }
+    }
+
+    /**
+     * Creates a controller configured from ADMISSION_MAX_CALLS (defaults to NOVA_SESSION_QUOTA),
+     * ADMISSION_QUEUE_SIZE and ADMISSION_QUEUE_TIMEOUT_MS.
+     * @return The admission controller
+     */
+    public static AdmissionController fromEnvironment() {
+        Map<String, String> environ = System.getenv();
+        return new AdmissionController(
+                Integer.parseInt(environ.getOrDefault("ADMISSION_MAX_CALLS",
+                        environ.getOrDefault("NOVA_SESSION_QUOTA", "20"))),
+                Integer.parseInt(environ.getOrDefault("ADMISSION_QUEUE_SIZE", "0")),
+                Long.parseLong(environ.getOrDefault("ADMISSION_QUEUE_TIMEOUT_MS", "3000")));
+    }
+
+    /**
+     * Requests a slot for a call.  onAdmitted runs on the calling thread when a slot is free, or later on an
+     * admission queue thread if the call had to wait.  onRejected runs if the call is rejected or times out in the
+     * queue, onCancelled if it is cancelled while waiting.  None runs for a duplicate.
+     * @param callId The SIP Call-ID.
+     * @param onAdmitted Invoked once the call holds a slot.
+     * @param onRejected Invoked if the call does not get a slot.
+     * @param onCancelled Invoked if the call is cancelled while it waits in the queue.
+     * @return The admission decision.
+     */
+    public Decision admit(String callId, Runnable onAdmitted, Runnable onRejected, Runnable onCancelled) {
+        if (admittedCallIds.contains(callId) || queuedCalls.containsKey(callId)) {
+            LOG.debug("Ignoring retransmitted INVITE for call {}", callId);
+            return Decision.DUPLICATE;
+        }
+        if (tryAcquireNow()) {
+            admittedCallIds.add(callId);
+            logUsage("admitted", callId);
+            onAdmitted.run();
+            return Decision.ADMITTED;
+        }
+        if (queueExecutor != null && queued.incrementAndGet() <= queueSize) {
+            if (queuedCalls.putIfAbsent(callId, onCancelled) != null) {
+                queued.decrementAndGet();
+                return Decision.DUPLICATE;
+            }
+            logUsage("queued", callId);
+            queueExecutor.execute(() -> awaitSlot(callId, onAdmitted, onRejected));
+            return Decision.QUEUED;
+        }
+        if (queueExecutor != null) {
+            queued.decrementAndGet();
+        }
+        reject(callId, onRejected);
+        return Decision.REJECTED;
+    }
+
+    /**
+     * Takes a call out of the admission queue, e.g. when its INVITE is cancelled.  onCancelled runs on the calling
+     * thread; the call is neither admitted nor rejected afterwards.
+     * @param callId The SIP Call-ID.
+     * @return true if the call was waiting in the queue.
+     */
+    public boolean cancel(String callId) {
+        Runnable onCancelled = queuedCalls.remove(callId);
+        if (onCancelled == null) {
+            return false;
+        }
+        queued.decrementAndGet();
+        logUsage("cancelled", callId);
+        onCancelled.run();
+        return true;
+    }
+
+    /**
+     * Releases the slot held by a call.  Safe to call more than once.
+     * @param callId The SIP Call-ID.
+     */
+    public void release(String callId) {
+        if (admittedCallIds.remove(callId)) {
+            slots.release();
+            logUsage("released", callId);
+        }
+    }
+
+    /**
+     * Returns the number of calls holding a slot.
+     */
+    public int getActiveCalls() {
+        return admittedCallIds.size();
+    }
+
+    /**
+     * Returns the configured number of slots, 0 if unlimited.
+     */
+    public int getMaxCalls() {
+        return maxCalls;
+    }
+
+    /**
+     * Returns the number of calls waiting for a slot.
+     */
+    public int getQueuedCalls() {
+        return queuedCalls.size();
+    }
+
+    /**
+     * Returns the number of calls rejected since startup.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private void awaitSlot(String callId, Runnable onAdmitted, Runnable onRejected) {
+        boolean acquired = false;
+        try {
+            acquired = slots.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (acquired) {
+            admittedCallIds.add(callId);
+        }
+        if (queuedCalls.remove(callId) == null) {
+            // cancelled while waiting: cancel has already accounted for it
+            if (acquired && admittedCallIds.remove(callId)) {
+                slots.release();
+            }
+            return;
+        }
+        queued.decrementAndGet();
+        if (acquired) {
+            logUsage("admitted from queue", callId);
+            onAdmitted.run();
+        } else {
+            reject(callId, onRejected);
+        }
+    }
+
+    /**
+     * Takes a free slot without waiting.  Unlike the untimed tryAcquire this honours the fair ordering, so a new call
+     * cannot overtake the calls already waiting in the queue.
+     */
+    private boolean tryAcquireNow() {
+        try {
+            return slots.tryAcquire(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void reject(String callId, Runnable onRejected) {
+        rejectedCount.incrementAndGet();
+        logUsage("rejected", callId);
+        onRejected.run();
+    }
+
+    private void logUsage(String event, String callId) {
+        if (maxCalls > 0) {
+            LOG.info("Admission {} call {}: slots {}/{} in use, {} queued, {} rejected",
+                    event, callId, getActiveCalls(), maxCalls, getQueuedCalls(), rejectedCount.get());
+        }
+    }
+}
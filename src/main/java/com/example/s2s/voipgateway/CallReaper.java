@@ -0,0 +1,190 @@
+package com.example.s2s.voipgateway;
+
+import com.example.s2s.voipgateway.nova.CallActivity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ends calls that have gone idle or run past their maximum duration, so abandoned calls do not hold session slots.
+ *
+ * A call is idle when neither the caller has spoken nor Nova has sent audio for the idle timeout, which covers
+ * callers who walk away without hanging up as well as streams Bedrock has silently stopped answering.  A reaped
+ * call plays the goodbye prompt and is hung up through its event handler.  If the SIP dialog or the Nova stream is
+ * still up well after that, or the Nova stream outlives the dialog, the stream is aborted and the call hung up
+ * directly.  Calls are tracked by SIP Call-ID.
+ */
+public class CallReaper {
+    private static final Logger LOG = LoggerFactory.getLogger(CallReaper.class);
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+    private static final long ABORT_GRACE_MILLIS = 30000;
+    private final long idleTimeoutMillis;
+    private final long maxDurationMillis;
+    private final Map<String, TrackedCall> calls = new ConcurrentHashMap<>();
+    private final AtomicLong idleReapedCount = new AtomicLong();
+    private final AtomicLong maxDurationReapedCount = new AtomicLong();
+    private final AtomicLong abortedCount = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    private static class TrackedCall {
+        private final CallActivity activity;
+        private final Runnable hangup;
+        private volatile boolean dialogEnded = false;
+        private volatile long endingSinceNanos = 0;
+
+        private TrackedCall(CallActivity activity, Runnable hangup) {
+            this.activity = activity;
+            this.hangup = hangup;
+        }
+    }
+
+    /**
+     * Creates a new reaper.
+     * @param idleTimeoutMillis Time without voice on either side before a call is ended, 0 for no limit.
+     * @param maxDurationMillis Maximum call duration, 0 for no limit.
+     */
+    public CallReaper(long idleTimeoutMillis, long maxDurationMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxDurationMillis = maxDurationMillis;
+        if (idleTimeoutMillis > 0 || maxDurationMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "call-reaper");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            LOG.info("Call reaper enabled: idle timeout {} ms, max duration {} ms", idleTimeoutMillis,
+                    maxDurationMillis);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Creates a reaper configured from CALL_IDLE_TIMEOUT_MS and CALL_MAX_DURATION_MS.
+     * @return The reaper, which does nothing unless one of the limits is set
+     */
+    public static CallReaper fromEnvironment() {
+        Map<String, String> environ = System.getenv();
+        return new CallReaper(
+                Long.parseLong(environ.getOrDefault("CALL_IDLE_TIMEOUT_MS", "0")),
+                Long.parseLong(environ.getOrDefault("CALL_MAX_DURATION_MS", "0")));
+    }
+
+    /**
+     * Starts watching an answered call.
+     * @param callId The SIP Call-ID.
+     * @param activity The call's activity clock.
+     * @param hangup Hangs up the SIP dialog.
+     */
+    public void track(String callId, CallActivity activity, Runnable hangup) {
+        if (scheduler != null) {
+            calls.put(callId, new TrackedCall(activity, hangup));
+        }
+    }
+
+    /**
+     * Records that a call's SIP dialog has ended.  The call is forgotten once its Nova stream has ended too.
+     * @param callId The SIP Call-ID.
+     */
+    public void release(String callId) {
+        TrackedCall call = calls.get(callId);
+        if (call == null) {
+            return;
+        }
+        call.dialogEnded = true;
+        if (call.endingSinceNanos == 0) {
+            call.endingSinceNanos = System.nanoTime();
+        }
+        if (!call.activity.isStreamOpen()) {
+            calls.remove(callId, call);
+        }
+    }
+
+    private void check() {
+        for (Map.Entry<String, TrackedCall> entry : calls.entrySet()) {
+            try {
+                check(entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                LOG.error("Failed to check call {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private void check(String callId, TrackedCall call) {
+        CallActivity activity = call.activity;
+        if (call.dialogEnded && !activity.isStreamOpen()) {
+            calls.remove(callId, call);
+            return;
+        }
+        if (call.endingSinceNanos != 0) {
+            long endingMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.endingSinceNanos);
+            if (endingMillis >= ABORT_GRACE_MILLIS) {
+                calls.remove(callId, call);
+                abortedCount.incrementAndGet();
+                LOG.warn("Call {} still {} {} ms after it ended, tearing it down", callId,
+                        call.dialogEnded ? "has an open Nova stream" : "connected", endingMillis);
+                activity.abort();
+                if (!call.dialogEnded) {
+                    call.hangup.run();
+                }
+            }
+            return;
+        }
+
+        String reason;
+        if (maxDurationMillis > 0 && activity.getAgeMillis() >= maxDurationMillis) {
+            reason = "maximum duration reached";
+            maxDurationReapedCount.incrementAndGet();
+        } else if (idleTimeoutMillis > 0 && activity.getIdleMillis() >= idleTimeoutMillis) {
+            reason = "idle";
+            idleReapedCount.incrementAndGet();
+        } else {
+            return;
+        }
+        call.endingSinceNanos = System.nanoTime();
+        LOG.warn("Reaping call {} ({}): {} ms old, caller last spoke {} ms ago, Nova last spoke {} ms ago "
+                        + "({} idle, {} max duration, {} aborted so far)", callId, reason, activity.getAgeMillis(),
+                activity.getMillisSinceInboundVoice(), activity.getMillisSinceOutboundAudio(),
+                idleReapedCount.get(), maxDurationReapedCount.get(), abortedCount.get());
+        if (!activity.terminate(reason)) {
+            // the media streams never started, there is nothing to say goodbye with
+            call.hangup.run();
+        }
+    }
+
+    /**
+     * Returns the number of calls being watched.
+     */
+    public int getTrackedCalls() {
+        return calls.size();
+    }
+
+    /**
+     * Returns the number of calls ended for being idle.
+     */
+    public long getIdleReapedCount() {
+        return idleReapedCount.get();
+    }
+
+    /**
+     * Returns the number of calls ended for reaching the maximum duration.
+     */
+    public long getMaxDurationReapedCount() {
+        return maxDurationReapedCount.get();
+    }
+
+    /**
+     * Returns the number of calls torn down because they did not end after being reaped or hung up.
+     */
+    public long getAbortedCount() {
+        return abortedCount.get();
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.s2s.voipgateway;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The variables of a call: the headers of its INVITE, the uui_{key} entries of its User-to-User data and the values
+ * the gateway calculates (sip_call_id, ani, dnis, client_id).
+ *
+ * The INVITE is kept as raw bytes, indexed by header name on first use, and a header is only decoded the first time
+ * someone asks for it, so the signaling thread no longer builds a map of every header, Via chains included, for
+ * each call.  Prompts, tools and notifications look up the few variables they reference; only iterating the map, as
+ * the S3 trace does when the call ends, parses the whole message.  Lookups of headers ignore case.  Calculated
+ * values are set with put; the map is otherwise read only.  Thread safe.
+ */
+public final class CallVariables extends AbstractMap<String, String> {
+    private static final String USER_TO_USER = "user-to-user";
+    private static final String UUI_PREFIX = "uui_";
+    private static final String MISSING = new String(); // cached lookup of a header the message does not have
+    private final byte[] message;
+    private SipHeaders.Index index;
+    private final Map<String, String> calculated = new HashMap<>();
+    private final Map<String, String> lookups = new HashMap<>();
+    private Map<String, String> uui;
+    private Map<String, String> all;
+
+    /**
+     * Creates the variables of a call.
+     * @param message The raw INVITE, null for a call without one.
+     */
+    public CallVariables(byte[] message) {
+        this.message = message != null ? message : new byte[0];
+    }
+
+    @Override
+    public synchronized String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String value = calculated.get(key);
+        if (value != null) {
+            return value;
+        }
+        if (all != null) {
+            return all.get(key);
+        }
+        value = lookups.get(key);
+        if (value == null) {
+            value = lookup((String) key);
+            lookups.put((String) key, value != null ? value : MISSING);
+        }
+        return value == MISSING ? null : value;
+    }
+
+    private String lookup(String key) {
+        if (key.regionMatches(true, 0, UUI_PREFIX, 0, UUI_PREFIX.length())) {
+            return getUuiVariables().get(key);
+        }
+        return index().find(key);
+    }
+
+    private SipHeaders.Index index() {
+        if (index == null) {
+            index = SipHeaders.Index.of(message);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the uui_{key} entries decoded from the User-to-User header, sorted by key.
+     * @return The UUI variables, empty if the INVITE has no User-to-User header
+     */
+    public synchronized Map<String, String> getUuiVariables() {
+        if (uui == null) {
+            String value = index().find(USER_TO_USER);
+            uui = value != null ? SipHeaders.parseUserToUser(value) : Collections.<String, String>emptyMap();
+        }
+        return uui;
+    }
+
+    /**
+     * Sets a calculated variable, which takes precedence over a header of the same name.
+     */
+    @Override
+    public synchronized String put(String key, String value) {
+        if (all != null) {
+            all.put(key, value);
+        }
+        return calculated.put(key, value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return all().size();
+    }
+
+    @Override
+    public synchronized Set<Entry<String, String>> entrySet() {
+        return Collections.unmodifiableMap(all()).entrySet();
+    }
+
+    private Map<String, String> all() {
+        if (all == null) {
+            all = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            all.putAll(SipHeaders.parse(message));
+            all.putAll(calculated);
+        }
+        return all;
+    }
+}
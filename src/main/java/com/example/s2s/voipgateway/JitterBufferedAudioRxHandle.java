@@ -0,0 +1,175 @@
+package com.example.s2s.voipgateway;
+
+import com.example.s2s.voipgateway.nova.io.JitterBuffer;
+import org.mjsip.media.RtpStreamReceiverListener;
+import org.mjsip.media.rx.AudioRxHandle;
+import org.mjsip.media.rx.RtpReceiverOptions;
+import org.mjsip.rtp.RtpPacket;
+import org.mjsip.rtp.RtpSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.SocketAddress;
+import org.zoolu.net.UdpSocket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receives the caller's RTP audio through a {@link JitterBuffer} instead of mjSIP's RtpStreamReceiver.
+ *
+ * A receive loop puts packets of the negotiated payload type into the buffer as they arrive; a playout loop writes
+ * one frame per packet time to the output stream on a steady clock.  Both run on the streamer's executor.  Like
+ * RtpStreamReceiver, the handle reports a new remote address to the listener (symmetric RTP) and notifies it when
+ * it terminates, with the receive or write error if there was one; the listener gets null as the receiver.  The
+ * buffer reorders packets and conceals gaps itself, so of the receiver options only random early drop applies: every
+ * Nth packet is dropped while more audio than the target delay is buffered.  When the handle terminates the output
+ * stream is closed and the buffer statistics are logged.
+ */
+public class JitterBufferedAudioRxHandle implements AudioRxHandle {
+    private static final Logger LOG = LoggerFactory.getLogger(JitterBufferedAudioRxHandle.class);
+    private static final int SO_TIMEOUT_MILLIS = 100;
+    private static final int DEFAULT_FRAME_MILLIS = 20;
+    private static final int MAX_PACKET_SIZE = 2048;
+    private static final long MAX_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private final UdpSocket socket;
+    private final RtpSocket rtpSocket;
+    private final int payloadType;
+    private final OutputStream output;
+    private final JitterBuffer jitterBuffer;
+    private final int randomEarlyDropRate;
+    private final RtpStreamReceiverListener listener;
+    private final Executor executor;
+    private volatile boolean running = false;
+    private volatile Exception error;
+    private SocketAddress remoteAddress; // receive loop only
+    private long receivedCount = 0; // receive loop only
+    private long droppedCount = 0; // receive loop only
+
+    /**
+     * Creates a new handle.
+     * @param options The receiver options.
+     * @param socket The RTP socket.
+     * @param payloadType The negotiated payload type, other payload types (e.g. telephone-event) are ignored.
+     * @param output Receives the μ-law frames.
+     * @param jitterBuffer The jitter buffer.
+     * @param listener Hears about remote address changes and termination, may be null.
+     * @param executor Runs the receive and playout loops.
+     */
+    public JitterBufferedAudioRxHandle(RtpReceiverOptions options, UdpSocket socket, int payloadType,
+                                       OutputStream output, JitterBuffer jitterBuffer,
+                                       RtpStreamReceiverListener listener, Executor executor) {
+        this.socket = socket;
+        this.rtpSocket = new RtpSocket(socket);
+        this.payloadType = payloadType;
+        this.output = output;
+        this.jitterBuffer = jitterBuffer;
+        this.randomEarlyDropRate = options != null ? options.randomEarlyDropRate() : 0;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        executor.execute(this::receive);
+        executor.execute(this::playout);
+    }
+
+    @Override
+    public void halt() {
+        running = false;
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        RtpPacket packet = new RtpPacket(buffer, 0);
+        try {
+            socket.setSoTimeout(SO_TIMEOUT_MILLIS);
+            while (running) {
+                try {
+                    rtpSocket.receive(packet);
+                } catch (InterruptedIOException e) {
+                    continue;
+                }
+                checkRemoteAddress();
+                if (packet.getPayloadType() != payloadType || dropEarly()) {
+                    continue;
+                }
+                jitterBuffer.offer(packet.getSequenceNumber(), packet.getTimestamp(), packet.getPacket(),
+                        packet.getHeaderLength(), packet.getPayloadLength(), System.nanoTime());
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOG.error("RTP receive failed", e);
+                error = e;
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Tells the listener when packets start arriving from a new address, so symmetric RTP can follow the caller.
+     */
+    private void checkRemoteAddress() {
+        SocketAddress source = rtpSocket.getRemoteSoAddress();
+        if (source != null && !source.equals(remoteAddress)) {
+            remoteAddress = source;
+            if (listener != null) {
+                listener.onRemoteSoAddressChanged(null, source);
+            }
+        }
+    }
+
+    /**
+     * Random early drop: drops every Nth packet while the buffer holds more than its target delay.
+     */
+    private boolean dropEarly() {
+        if (randomEarlyDropRate <= 0 || ++receivedCount % randomEarlyDropRate != 0
+                || jitterBuffer.getBufferedMillis() <= jitterBuffer.getTargetDelayMillis()) {
+            return false;
+        }
+        droppedCount++;
+        return true;
+    }
+
+    private void playout() {
+        byte[] frame = new byte[MAX_PACKET_SIZE];
+        long next = System.nanoTime();
+        try {
+            while (running) {
+                int frameMillis = jitterBuffer.getFrameMillis();
+                next += TimeUnit.MILLISECONDS.toNanos(frameMillis > 0 ? frameMillis : DEFAULT_FRAME_MILLIS);
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else if (wait < -MAX_LAG_NANOS) {
+                    // the thread was stalled: restart the clock rather than catch up in a burst
+                    next = System.nanoTime();
+                }
+                int length = jitterBuffer.poll(frame);
+                if (length > 0) {
+                    output.write(frame, 0, length);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Writing received audio failed", e);
+            error = e;
+            running = false;
+        } finally {
+            LOG.info("Jitter buffer: {}{}", jitterBuffer,
+                    droppedCount > 0 ? ", " + droppedCount + " dropped early" : "");
+            try {
+                output.close();
+            } catch (IOException ex) {
+                LOG.error("Closing audio stream failed: {}", output, ex);
+            }
+            if (listener != null) {
+                listener.onRtpStreamReceiverTerminated(null, error);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.s2s.voipgateway;
 
 import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
+import com.example.s2s.voipgateway.nova.io.JitterBuffer;
 import com.example.s2s.voipgateway.nova.io.NovaAudioOutputStream;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
 import org.mjsip.media.RtpStreamReceiver;
@@ -15,6 +16,7 @@ import org.zoolu.util.Encoder;
 
 import javax.sound.sampled.AudioFormat;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * mjSIP AudioReceiver implementation for Nova Sonic
@@ -23,10 +25,30 @@ public class NovaSonicAudioOutput implements AudioReceiver {
     private static final Logger LOG = LoggerFactory.getLogger(AudioFileReceiver.class);
     private final InteractObserver<NovaSonicEvent> inputObserver;
     private final String promptName;
+    private final Runnable voiceListener;
+    private final Executor executor;
 
     public NovaSonicAudioOutput(InteractObserver<NovaSonicEvent> inputObserver, String promptName) {
+        this(inputObserver, promptName, null, null);
+    }
+
+    /**
+     * @param voiceListener Called for each inbound frame in which the caller is speaking, may be null.
+     * @param executor The streamer's executor, runs the jitter buffer's receive and playout loops.  If null they
+     *                 get threads of their own.
+     */
+    public NovaSonicAudioOutput(InteractObserver<NovaSonicEvent> inputObserver, String promptName,
+                                Runnable voiceListener, Executor executor) {
         this.inputObserver = inputObserver;
         this.promptName = promptName;
+        this.voiceListener = voiceListener;
+        this.executor = executor != null ? executor : NovaSonicAudioOutput::startThread;
+    }
+
+    private static void startThread(Runnable task) {
+        Thread thread = new Thread(task, "rtp-jitter-buffer");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     @Override
@@ -34,7 +56,12 @@ public class NovaSonicAudioOutput implements AudioReceiver {
                                         CodecType codec, int payload_type, RtpPayloadFormat payloadFormat,
                                         int sample_rate, int channels, Encoder additional_decoder,
                                         RtpStreamReceiverListener listener) throws IOException {
-        NovaAudioOutputStream outputStream = new NovaAudioOutputStream(inputObserver, promptName);
+        NovaAudioOutputStream outputStream = new NovaAudioOutputStream(inputObserver, promptName, voiceListener);
+        JitterBuffer jitterBuffer = JitterBuffer.fromEnvironment();
+        if (jitterBuffer != null) {
+            return new JitterBufferedAudioRxHandle(options, socket, payload_type, outputStream, jitterBuffer, listener,
+                    executor);
+        }
         RtpStreamReceiver receiver = new RtpStreamReceiver(options, outputStream, additional_decoder, payloadFormat, socket, listener) {
             protected void onRtpStreamReceiverTerminated(Exception error) {
                 super.onRtpStreamReceiverTerminated(error);
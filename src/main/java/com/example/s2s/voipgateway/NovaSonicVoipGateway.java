@@ -1,7 +1,10 @@
 package com.example.s2s.voipgateway;
 
+import com.example.s2s.voipgateway.notification.SqsNotifier;
+import com.example.s2s.voipgateway.nova.CallActivity;
 import com.example.s2s.voipgateway.nova.NovaStreamerFactory;
 import com.example.s2s.voipgateway.tracing.CallTracer;
+import com.example.s2s.voipgateway.tracing.TraceUploader;
 import org.mjsip.config.OptionParser;
 import org.mjsip.media.MediaDesc;
 import org.mjsip.media.MediaSpec;
@@ -9,6 +12,7 @@ import org.mjsip.pool.PortConfig;
 import org.mjsip.pool.PortPool;
 import org.mjsip.sip.address.NameAddress;
 import org.mjsip.sip.address.SipURI;
+import org.mjsip.sip.header.Header;
 import org.mjsip.sip.message.SipMessage;
 import org.mjsip.sip.provider.SipConfig;
 import org.mjsip.sip.provider.SipKeepAlive;
@@ -22,13 +26,8 @@ import org.mjsip.ua.streamer.StreamerFactory;
 import org.slf4j.LoggerFactory;
 import org.zoolu.net.SocketAddress;
 
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
@@ -36,9 +35,15 @@ import java.util.regex.Pattern;
  */
 public class NovaSonicVoipGateway extends RegisteringMultipleUAS {
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(NovaSonicVoipGateway.class);
+    private static final int ADMISSION_REJECT_CODE =
+            Integer.parseInt(System.getenv().getOrDefault("ADMISSION_REJECT_CODE", "503"));
+    private static final int ADMISSION_RETRY_AFTER_SECONDS =
+            Integer.parseInt(System.getenv().getOrDefault("ADMISSION_RETRY_AFTER_SECONDS", "5"));
     // Instance variables
     protected final NovaMediaConfig mediaConfig;
     protected final UAConfig uaConfig;
+    private final AdmissionController admissionController;
+    private final CallReaper callReaper;
     private NovaStreamerFactory streamerFactory;
     private RegistrationClient _rc;
     private SipKeepAlive keep_alive;
@@ -53,7 +58,12 @@ public class NovaSonicVoipGateway extends RegisteringMultipleUAS {
         super(sipProvider, portPool, uaConfig, serviceConfig);
         this.mediaConfig = mediaConfig;
         this.uaConfig = uaConfig;
+        this.admissionController = AdmissionController.fromEnvironment();
+        this.callReaper = CallReaper.fromEnvironment();
         streamerFactory = new NovaStreamerFactory(this.mediaConfig);
+        // Resolve the SQS queue and recover the trace spool and SQS outbox before the first call ends
+        SqsNotifier.getInstance();
+        TraceUploader.getInstance();
         registerWithKeepAlive();
     }
 
@@ -105,228 +115,149 @@ public class NovaSonicVoipGateway extends RegisteringMultipleUAS {
         }
     }
 
+    /**
+     * Runs new INVITEs through admission control before they are handed to the user agent.  Calls that do not get
+     * a session slot are answered with ADMISSION_REJECT_CODE (503 by default) and a Retry-After header.  A CANCEL
+     * for a call still waiting in the admission queue is answered here, as the user agent never saw its INVITE.
+     */
     @Override
-    protected UserAgentListener createCallHandler(SipMessage msg) {
-        register();
-
-        // Extract real SIP Call-ID from message
+    public void onReceivedMessage(SipProvider provider, SipMessage msg) {
+        if (msg.isRequest() && msg.isCancel() && admissionController != null
+                && admissionController.cancel(msg.getCallIdHeader().getCallId())) {
+            respond(provider, msg, 200, 0);
+            return;
+        }
+        if (!msg.isRequest() || !msg.isInvite() || admissionController == null) {
+            super.onReceivedMessage(provider, msg);
+            return;
+        }
         String sipCallId = msg.getCallIdHeader().getCallId();
-
-        // Extract ALL SIP headers dynamically
-        Map<String, String> sipHeaders = extractAllSipHeaders(msg);
-
-        // Log only external variables (cleaner view)
-        logExternalVariables(sipCallId, sipHeaders);
-
-        // Optional: Keep full SIP headers in DEBUG level
-        if (LOG.isDebugEnabled()) {
-            logSipHeadersDetailed(sipCallId, sipHeaders);
+        AdmissionController.Decision decision = admissionController.admit(sipCallId,
+                () -> {
+                    try {
+                        super.onReceivedMessage(provider, msg);
+                    } catch (RuntimeException e) {
+                        admissionController.release(sipCallId);
+                        throw e;
+                    }
+                },
+                () -> respond(provider, msg, ADMISSION_REJECT_CODE, ADMISSION_RETRY_AFTER_SECONDS),
+                () -> respond(provider, msg, 487, 0));
+        if (decision == AdmissionController.Decision.QUEUED) {
+            // stops the caller retransmitting the INVITE while it waits for a slot
+            respond(provider, msg, 100, 0);
         }
-
-        return new UserAgentListenerAdapter() {
-            @Override
-            public void onUaIncomingCall(UserAgent ua, NameAddress callee, NameAddress caller,
-                                         MediaDesc[] media_descs) {
-                LOG.info("Incoming call from: {} to: {}", caller.getAddress(), callee.getAddress());
-
-                // Add calculated variables to the map
-                sipHeaders.put("sip_call_id", sipCallId);
-                sipHeaders.put("ani", extractPhoneNumber(caller));
-                sipHeaders.put("dnis", extractPhoneNumber(callee));
-                sipHeaders.put("client_id", System.getenv().getOrDefault("CLIENT_ID", "keralty"));
-
-                // Create call tracer with all variables
-                CallTracer tracer = new CallTracer(sipHeaders);
-
-                // Create media agent with tracer
-                ua.accept(new MediaAgent(mediaConfig.getMediaDescs(), streamerFactory.withTracer(tracer)));
-            }
-        };
     }
 
     /**
-     * Extracts ALL headers from SIP message dynamically.
-     * Captures custom headers sent by provider (e.g., X-Client-Name, X-Session-ID).
-     *
-     * @param msg SIP message
-     * @return Map with all headers (key: header name in lowercase, value: header value)
+     * Sends a stateless response to a request.
      */
-    private Map<String, String> extractAllSipHeaders(SipMessage msg) {
-        Map<String, String> headers = new HashMap<>();
-
+    private void respond(SipProvider provider, SipMessage request, int code, int retryAfterSeconds) {
         try {
-            // Get all headers from SIP message
-            Vector<?> allHeaders = msg.getHeaders();
-
-            for (Object headerObj : allHeaders) {
-                try {
-                    // mjSIP uses org.mjsip.sip.header.Header interface
-                    // Each header has getName() and getValue() methods
-                    String headerName = (String) headerObj.getClass().getMethod("getName").invoke(headerObj);
-                    String headerValue = (String) headerObj.getClass().getMethod("getValue").invoke(headerObj);
-
-                    if (headerName != null && headerValue != null) {
-                        String key = headerName.toLowerCase();
-
-                        // Handle duplicate headers (e.g., multiple Via headers)
-                        if (headers.containsKey(key)) {
-                            headers.put(key, headers.get(key) + "," + headerValue);
-                        } else {
-                            headers.put(key, headerValue);
-                        }
-                    }
-                } catch (Exception e) {
-                    LOG.debug("Could not extract header from object: {}", headerObj.getClass().getName());
-                }
+            SipMessage response = provider.messageFactory().createResponse(request, code, null, null);
+            if (retryAfterSeconds > 0) {
+                response.setHeader(new Header("Retry-After", String.valueOf(retryAfterSeconds)));
             }
-
-            LOG.debug("Extracted {} SIP headers from message", headers.size());
-
-        } catch (Exception e) {
-            LOG.error("Error extracting SIP headers: {}", e.getMessage(), e);
+            provider.sendMessage(response);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to send {} response for call {}", code, request.getCallIdHeader().getCallId(), e);
         }
-
-        // Fallback parser for non-standard headers (UUI, custom X-headers)
-        extractUUIFromRawMessage(msg, headers);
-
-        return headers;
     }
 
     /**
-     * Extracts User-to-User and other non-standard headers from raw SIP message.
-     * This fallback parser handles headers that mjSIP doesn't recognize (e.g., RFC 7433 UUI).
-     *
-     * @param msg SIP message
-     * @param headers Map to populate with found headers
+     * Returns the admission controller guarding incoming calls.
      */
-    private void extractUUIFromRawMessage(SipMessage msg, Map<String, String> headers) {
-        try {
-            byte[] rawBytes = msg.getBytes();
-            String rawMessage = new String(rawBytes, StandardCharsets.UTF_8);
-
-            // Log full raw message for debugging (remove after verification)
-            LOG.debug("Full raw SIP message:\n{}", rawMessage);
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
 
-            // Parse for User-to-User header (case-insensitive, RFC 7433)
-            // Format: User-to-User: <value>;encoding=<enc>;purpose=<purpose>
-            Pattern uuiPattern = Pattern.compile("(?im)^User-to-User\\s*:\\s*([^\\r\\n]+)");
-            Matcher uuiMatcher = uuiPattern.matcher(rawMessage);
+    /**
+     * Returns the reaper ending idle and overlong calls.
+     */
+    public CallReaper getCallReaper() {
+        return callReaper;
+    }
 
-            if (uuiMatcher.find()) {
-                String uuiValue = uuiMatcher.group(1).trim();
-                headers.put("user-to-user", uuiValue);
-                LOG.info("Captured User-to-User header from raw message: {}", uuiValue);
+    /**
+     * Frees what a call holds once its SIP dialog has ended.
+     */
+    private void release(String sipCallId) {
+        admissionController.release(sipCallId);
+        callReaper.release(sipCallId);
+    }
 
-                // Parse UUI data into individual key-value pairs
-                // Format: Task.callId=abc-123;encoding=hex;purpose=isdn-uui
-                parseUUIDataToHeaders(uuiValue, headers);
-            }
+    @Override
+    protected UserAgentListener createCallHandler(SipMessage msg) {
+        register();
 
-            // Also scan for any X-* custom headers that mjSIP might have missed
-            Pattern xHeaderPattern = Pattern.compile("(?im)^(X-[^:]+)\\s*:\\s*([^\\r\\n]+)");
-            Matcher xHeaderMatcher = xHeaderPattern.matcher(rawMessage);
+        // Extract real SIP Call-ID from message
+        String sipCallId = msg.getCallIdHeader().getCallId();
 
-            while (xHeaderMatcher.find()) {
-                String headerName = xHeaderMatcher.group(1).trim().toLowerCase();
-                String headerValue = xHeaderMatcher.group(2).trim();
+        // Keep the raw INVITE; headers are only decoded when a prompt, tool or trace asks for them
+        CallVariables variables = extractCallVariables(msg);
 
-                // Only add if not already captured by standard extraction
-                if (!headers.containsKey(headerName)) {
-                    headers.put(headerName, headerValue);
-                    LOG.debug("Captured custom header from raw message: {} = {}", headerName, headerValue);
-                }
-            }
+        // Log only external variables (cleaner view)
+        logExternalVariables(sipCallId, variables.getUuiVariables());
 
-        } catch (Exception e) {
-            LOG.warn("Error extracting headers from raw SIP message: {}", e.getMessage(), e);
+        // Optional: Keep full SIP headers in DEBUG level
+        if (LOG.isDebugEnabled()) {
+            logSipHeadersDetailed(sipCallId, variables);
         }
-    }
-
-    /**
-     * Parses UUI data string into individual key-value pairs and adds them to headers map.
-     * Handles formats like: Task.callId=abc-123;encoding=hex;purpose=isdn-uui
-     * Creates individual entries: uui_task_callid, uui_encoding, uui_purpose, etc.
-     *
-     * @param uuiData The full UUI data string
-     * @param headers Map to populate with parsed key-value pairs
-     */
-    private void parseUUIDataToHeaders(String uuiData, Map<String, String> headers) {
-        try {
-            String dataToParse = uuiData;
-
-            // Check if it's hex-encoded (Genesys Cloud format)
-            // Pattern: starts with hex digits followed by ;encoding=hex
-            if (uuiData.matches("^[0-9a-fA-F]+;encoding=hex.*")) {
-                // Extract hex part (everything before first semicolon)
-                int semicolonIndex = uuiData.indexOf(';');
-                String hexPart = uuiData.substring(0, semicolonIndex);
-
-                // Decode hex to ASCII
-                String decoded = decodeHexToAscii(hexPart);
-                if (decoded != null) {
-                    LOG.info("Decoded UUI hex data: {}", decoded);
-                    dataToParse = decoded;
-                }
-            }
 
-            // Parse key-value pairs
-            // Genesys format: Key:Value|Key:Value|
-            // Generic format: Key=Value;Key=Value;
-            String[] parts = dataToParse.split("[|;]");
+        return new UserAgentListenerAdapter() {
+            @Override
+            public void onUaIncomingCall(UserAgent ua, NameAddress callee, NameAddress caller,
+                                         MediaDesc[] media_descs) {
+                LOG.info("Incoming call from: {} to: {}", caller.getAddress(), callee.getAddress());
 
-            for (String part : parts) {
-                part = part.trim();
-                if (part.isEmpty()) continue;
+                // Add calculated variables to the headers
+                variables.put("sip_call_id", sipCallId);
+                variables.put("ani", extractPhoneNumber(caller));
+                variables.put("dnis", extractPhoneNumber(callee));
+                variables.put("client_id", System.getenv().getOrDefault("CLIENT_ID", "keralty"));
 
-                // Try colon separator first (Genesys), then equals
-                int separatorIndex = part.indexOf(':');
-                if (separatorIndex <= 0) {
-                    separatorIndex = part.indexOf('=');
-                }
+                // Create call tracer with all variables
+                CallTracer tracer = new CallTracer(variables);
+
+                // Create media agent with tracer; Nova and the call reaper end the call through the hangup action
+                Runnable hangup = () -> {
+                    ua.hangup();
+                    release(sipCallId);
+                };
+                CallActivity activity = new CallActivity();
+                callReaper.track(sipCallId, activity, hangup);
+                ua.accept(new MediaAgent(mediaConfig.getMediaDescs(),
+                        streamerFactory.withTracer(tracer, hangup, activity)));
+            }
 
-                if (separatorIndex > 0) {
-                    String key = part.substring(0, separatorIndex).trim();
-                    String value = part.substring(separatorIndex + 1).trim();
+            @Override
+            public void onUaCallClosed(UserAgent ua) {
+                release(sipCallId);
+            }
 
-                    // Normalize key: ConversationId -> uui_conversationid
-                    String normalizedKey = "uui_" + key.toLowerCase().replace('.', '_');
+            @Override
+            public void onUaCallFailed(UserAgent ua, String reason) {
+                release(sipCallId);
+            }
 
-                    headers.put(normalizedKey, value);
-                    LOG.info("Parsed UUI parameter: {} = {}", normalizedKey, value);
-                }
+            @Override
+            public void onUaCallCancelled(UserAgent ua) {
+                release(sipCallId);
             }
-        } catch (Exception e) {
-            LOG.warn("Error parsing UUI data into key-value pairs: {}", e.getMessage());
-        }
+        };
     }
 
     /**
-     * Decodes hex string to ASCII text.
-     * Removes the protocol discriminator prefix (first 2 chars) if present.
+     * Wraps the raw SIP message as the call's variables, without decoding any header yet.
+     * Custom headers sent by provider (e.g., X-Client-Name, X-Session-ID) and the User-to-User
+     * data, split into uui_* entries, are decoded on first use (see {@link CallVariables}).
+     * Package-private and static so the benchmarks can run it on captured INVITEs.
      *
-     * @param hexString Hex string to decode
-     * @return Decoded ASCII string
+     * @param msg SIP message
+     * @return The call variables (key: header name in lowercase, value: header value)
      */
-    private String decodeHexToAscii(String hexString) {
-        try {
-            // Remove protocol discriminator (first octet = first 2 hex chars)
-            if (hexString.length() >= 2 && hexString.startsWith("00")) {
-                hexString = hexString.substring(2);
-            }
-
-            // Convert hex to bytes
-            int len = hexString.length();
-            byte[] data = new byte[len / 2];
-            for (int i = 0; i < len; i += 2) {
-                data[i / 2] = (byte) ((Character.digit(hexString.charAt(i), 16) << 4)
-                                    + Character.digit(hexString.charAt(i+1), 16));
-            }
-
-            return new String(data, StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            LOG.warn("Error decoding hex string: {}", e.getMessage());
-            return null;
-        }
+    static CallVariables extractCallVariables(SipMessage msg) {
+        return new CallVariables(msg.getBytes());
     }
 
     /**
@@ -357,26 +288,22 @@ public class NovaSonicVoipGateway extends RegisteringMultipleUAS {
      * Logs only external variables (from UUI data) in a clean format.
      *
      * @param sipCallId SIP Call-ID
-     * @param headers Map of all headers
+     * @param uuiVariables UUI variables, sorted by key
      */
-    private void logExternalVariables(String sipCallId, Map<String, String> headers) {
+    private void logExternalVariables(String sipCallId, Map<String, String> uuiVariables) {
         StringBuilder sb = new StringBuilder();
         sb.append("\n========================================\n");
         sb.append("EXTERNAL VARIABLES (call_id: ").append(sipCallId).append(")\n");
         sb.append("========================================\n");
 
         // Filter only UUI-parsed variables
-        boolean hasVariables = false;
-        for (String key : headers.keySet().stream().sorted().collect(java.util.stream.Collectors.toList())) {
-            if (key.startsWith("uui_")) {
-                // Remove uui_ prefix for display
-                String displayKey = key.substring(4);
-                sb.append(String.format("  %-25s: %s\n", displayKey, headers.get(key)));
-                hasVariables = true;
-            }
+        for (Map.Entry<String, String> entry : uuiVariables.entrySet()) {
+            // Remove uui_ prefix for display
+            String displayKey = entry.getKey().substring(4);
+            sb.append(String.format("  %-25s: %s\n", displayKey, entry.getValue()));
         }
 
-        if (!hasVariables) {
+        if (uuiVariables.isEmpty()) {
             sb.append("  (No external variables found)\n");
         }
 
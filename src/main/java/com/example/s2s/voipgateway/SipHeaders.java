@@ -0,0 +1,507 @@
+package com.example.s2s.voipgateway;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The headers of a SIP message as an immutable map, parsed in one pass over the raw message bytes.
+ *
+ * Keys are header names in lower case, with compact forms expanded (i becomes call-id), and lookups ignore case.
+ * Repeated headers are joined with commas, except User-to-User, where the first one wins.  The User-to-User value
+ * (RFC 7433) is also split into uui_{key} entries: Genesys sends hex encoded Key:Value|Key:Value data, which is
+ * decoded without its leading protocol discriminator, and other senders key=value;key=value parameters.  Keys are
+ * lower-cased with dots turned into underscores.  Entries are held in two sorted arrays.
+ */
+public final class SipHeaders extends AbstractMap<String, String> {
+    private static final Logger LOG = LoggerFactory.getLogger(SipHeaders.class);
+    private static final String USER_TO_USER = "user-to-user";
+    private static final String UUI_PREFIX = "uui_";
+    private static final String HEX_ENCODING = ";encoding=hex";
+    private static final int INITIAL_CAPACITY = 32;
+    private final String[] keys;
+    private final String[] values;
+
+    private SipHeaders(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Parses the headers of a SIP message, stopping at the blank line before the body.  Lines that are not headers
+     * are skipped, so a malformed message yields whatever headers could be read.
+     * @param message The raw SIP message.
+     * @return The headers
+     */
+    public static SipHeaders parse(byte[] message) {
+        Builder builder = new Builder();
+        int length = message.length;
+        int pos = nextLine(message, 0, length); // skip the request or status line
+        String name = null;
+        String value = null;
+        while (pos < length) {
+            int end = lineEnd(message, pos, length);
+            if (end == pos) {
+                break; // blank line: the body follows
+            }
+            if ((message[pos] == ' ' || message[pos] == '\t') && name != null) {
+                // folded continuation of the previous header
+                value = value + ' ' + decode(message, pos, end);
+            } else {
+                if (name != null) {
+                    builder.add(name, value);
+                    name = null;
+                }
+                int colon = indexOf(message, pos, end, ':');
+                if (colon > pos) {
+                    name = headerName(message, pos, colon);
+                    value = decode(message, colon + 1, end);
+                }
+            }
+            pos = nextLine(message, end, length);
+        }
+        if (name != null) {
+            builder.add(name, value);
+        }
+        String uui = builder.get(USER_TO_USER);
+        if (uui != null) {
+            parseUui(uui, builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Splits a User-to-User header value into uui_{key} entries, as {@link #parse(byte[])} does.
+     * @param uui The User-to-User header value.
+     * @return The uui_{key} entries
+     */
+    public static SipHeaders parseUserToUser(String uui) {
+        Builder builder = new Builder();
+        parseUui(uui, builder);
+        return builder.build();
+    }
+
+    /**
+     * Splits User-to-User data into uui_{key} entries.
+     */
+    private static void parseUui(String uui, Builder builder) {
+        String data = uui;
+        int hexEnd = 0;
+        while (hexEnd < uui.length() && Character.digit(uui.charAt(hexEnd), 16) >= 0) {
+            hexEnd++;
+        }
+        if (hexEnd > 0 && uui.regionMatches(true, hexEnd, HEX_ENCODING, 0, HEX_ENCODING.length())) {
+            data = decodeHex(uui, hexEnd);
+            LOG.debug("Decoded UUI hex data: {}", data);
+        }
+        int start = 0;
+        int length = data.length();
+        while (start < length) {
+            int end = start;
+            while (end < length && data.charAt(end) != '|' && data.charAt(end) != ';') {
+                end++;
+            }
+            int separator = indexOf(data, start, end, ':');
+            if (separator <= start) {
+                separator = indexOf(data, start, end, '=');
+            }
+            if (separator > start) {
+                String key = data.substring(start, separator).trim();
+                if (!key.isEmpty()) {
+                    builder.put(UUI_PREFIX + key.toLowerCase().replace('.', '_'),
+                            data.substring(separator + 1, end).trim());
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Decodes the hex digits before end as UTF-8, without a leading 00 protocol discriminator.
+     */
+    private static String decodeHex(String hex, int end) {
+        int start = hex.startsWith("00") ? 2 : 0;
+        byte[] data = new byte[(end - start) / 2];
+        for (int i = 0; i < data.length; i++) {
+            int at = start + i * 2;
+            data[i] = (byte) ((Character.digit(hex.charAt(at), 16) << 4) + Character.digit(hex.charAt(at + 1), 16));
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the header name in lower case with compact forms expanded.
+     */
+    private static String headerName(byte[] message, int start, int colon) {
+        int end = colon;
+        while (end > start && (message[end - 1] == ' ' || message[end - 1] == '\t')) {
+            end--;
+        }
+        if (end - start == 1) {
+            String expanded = compactForm(message[start] | 0x20);
+            if (expanded != null) {
+                return expanded;
+            }
+        }
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            int b = message[i] & 0xFF;
+            chars[i - start] = (char) (b >= 'A' && b <= 'Z' ? b | 0x20 : b);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compares a header name with the given name, ignoring case and expanding compact forms.
+     */
+    private static boolean nameMatches(byte[] message, int start, int colon, String name) {
+        int end = colon;
+        while (end > start && (message[end - 1] == ' ' || message[end - 1] == '\t')) {
+            end--;
+        }
+        if (end - start == 1) {
+            String expanded = compactForm(message[start] | 0x20);
+            if (expanded != null) {
+                return expanded.equalsIgnoreCase(name);
+            }
+        }
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            int b = message[i] & 0xFF;
+            char c = name.charAt(i - start);
+            if ((b >= 'A' && b <= 'Z' ? b | 0x20 : b) != (c >= 'A' && c <= 'Z' ? c | 0x20 : c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * RFC 3261 section 7.3.3 compact header names.
+     */
+    private static String compactForm(int c) {
+        switch (c) {
+            case 'i': return "call-id";
+            case 'm': return "contact";
+            case 'e': return "content-encoding";
+            case 'l': return "content-length";
+            case 'c': return "content-type";
+            case 'f': return "from";
+            case 's': return "subject";
+            case 'k': return "supported";
+            case 't': return "to";
+            case 'v': return "via";
+            default: return null;
+        }
+    }
+
+    /**
+     * Decodes a header value as UTF-8 without surrounding whitespace.
+     */
+    private static String decode(byte[] message, int start, int end) {
+        while (start < end && (message[start] == ' ' || message[start] == '\t')) {
+            start++;
+        }
+        while (end > start && (message[end - 1] == ' ' || message[end - 1] == '\t')) {
+            end--;
+        }
+        return new String(message, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static int lineEnd(byte[] message, int pos, int length) {
+        while (pos < length && message[pos] != '\r' && message[pos] != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int nextLine(byte[] message, int pos, int length) {
+        pos = lineEnd(message, pos, length);
+        if (pos < length && message[pos] == '\r') {
+            pos++;
+        }
+        if (pos < length && message[pos] == '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int indexOf(byte[] message, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (message[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(String s, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfKey(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(keys, (String) key, String.CASE_INSENSITIVE_ORDER);
+        return index >= 0 ? index : -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOfKey(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOfKey(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(keys[next], values[next]);
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    /**
+     * The positions of the header lines of a SIP message, found in one pass without decoding anything, so single
+     * headers can be decoded on demand.  Each line is recorded with the hash of its lower-cased (and expanded)
+     * name, so a lookup compares a few ints per header.
+     */
+    public static final class Index {
+        private static final int FIELDS = 4; // hash, name start (-1 for a folded continuation), colon, line end
+        private final byte[] message;
+        private final int[] lines;
+        private final int count;
+
+        private Index(byte[] message, int[] lines, int count) {
+            this.message = message;
+            this.lines = lines;
+            this.count = count;
+        }
+
+        /**
+         * Indexes the headers of a SIP message, stopping at the blank line before the body.
+         * @param message The raw SIP message.
+         * @return The index
+         */
+        public static Index of(byte[] message) {
+            int[] lines = new int[INITIAL_CAPACITY * FIELDS];
+            int count = 0;
+            int length = message.length;
+            int pos = nextLine(message, 0, length);
+            while (pos < length) {
+                int end = lineEnd(message, pos, length);
+                if (end == pos) {
+                    break;
+                }
+                int hash;
+                int start;
+                int colon;
+                if (message[pos] == ' ' || message[pos] == '\t') {
+                    hash = 0;
+                    start = -1;
+                    colon = pos - 1;
+                } else {
+                    colon = indexOf(message, pos, end, ':');
+                    if (colon <= pos) {
+                        pos = nextLine(message, end, length);
+                        continue;
+                    }
+                    hash = nameHash(message, pos, colon);
+                    start = pos;
+                }
+                if ((count + 1) * FIELDS > lines.length) {
+                    lines = Arrays.copyOf(lines, lines.length * 2);
+                }
+                int at = count++ * FIELDS;
+                lines[at] = hash;
+                lines[at + 1] = start;
+                lines[at + 2] = colon;
+                lines[at + 3] = end;
+                pos = nextLine(message, end, length);
+            }
+            return new Index(message, lines, count);
+        }
+
+        /**
+         * Decodes one header, with repeats joined as by {@link SipHeaders#parse(byte[])}.
+         * @param name The header name, in any case; compact forms are matched by their full name.
+         * @return The header value, or null if the message does not have the header
+         */
+        public String find(String name) {
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                hash = 31 * hash + (c >= 'A' && c <= 'Z' ? c | 0x20 : c);
+            }
+            String found = null;
+            boolean matching = false;
+            for (int at = 0; at < count * FIELDS; at += FIELDS) {
+                int start = lines[at + 1];
+                if (start < 0) {
+                    if (matching) {
+                        found = found + ' ' + decode(message, lines[at + 2] + 1, lines[at + 3]);
+                    }
+                    continue;
+                }
+                matching = false;
+                if (lines[at] == hash && nameMatches(message, start, lines[at + 2], name)) {
+                    String value = decode(message, lines[at + 2] + 1, lines[at + 3]);
+                    if (found == null) {
+                        found = value;
+                        matching = true;
+                    } else if (!USER_TO_USER.equalsIgnoreCase(name)) {
+                        found = found + "," + value;
+                        matching = true;
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Returns the String hash of the lower-cased header name, with compact forms expanded.
+         */
+        private static int nameHash(byte[] message, int start, int colon) {
+            int end = colon;
+            while (end > start && (message[end - 1] == ' ' || message[end - 1] == '\t')) {
+                end--;
+            }
+            if (end - start == 1) {
+                String expanded = compactForm(message[start] | 0x20);
+                if (expanded != null) {
+                    return expanded.hashCode();
+                }
+            }
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                int b = message[i] & 0xFF;
+                hash = 31 * hash + (b >= 'A' && b <= 'Z' ? b | 0x20 : b);
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Collects entries in arrival order, then sorts them once.  Messages carry a few dozen headers, so lookups
+     * while building are linear.
+     */
+    private static final class Builder {
+        private String[] keys = new String[INITIAL_CAPACITY];
+        private String[] values = new String[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private int find(String key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        String get(String key) {
+            int index = find(key);
+            return index >= 0 ? values[index] : null;
+        }
+
+        /**
+         * Adds a header, joining repeats.
+         */
+        void add(String key, String value) {
+            int index = find(key);
+            if (index < 0) {
+                append(key, value);
+            } else if (!USER_TO_USER.equals(key)) {
+                values[index] = values[index] + "," + value;
+            }
+        }
+
+        /**
+         * Sets an entry, replacing any previous value.
+         */
+        void put(String key, String value) {
+            int index = find(key);
+            if (index < 0) {
+                append(key, value);
+            } else {
+                values[index] = value;
+            }
+        }
+
+        private void append(String key, String value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size] = value;
+            size++;
+        }
+
+        SipHeaders build() {
+            // insertion sort keeps keys and values paired without boxing
+            for (int i = 1; i < size; i++) {
+                String key = keys[i];
+                String value = values[i];
+                int j = i - 1;
+                while (j >= 0 && String.CASE_INSENSITIVE_ORDER.compare(keys[j], key) > 0) {
+                    keys[j + 1] = keys[j];
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                keys[j + 1] = key;
+                values[j + 1] = value;
+            }
+            return new SipHeaders(Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -1,46 +1,119 @@
 package com.example.s2s.voipgateway.notification;
 
+import com.example.s2s.voipgateway.spool.Spool;
 import com.example.s2s.voipgateway.tracing.CallTracer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
-import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClientBuilder;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Process-wide sender of call completion messages to the nova-sonic-emt SQS queue, so ending a call never waits on
+ * SQS.
+ *
+ * Messages are queued in memory (SQS_QUEUE_SIZE) and sent by a single worker thread every SQS_LINGER_MS, up to 10
+ * per SendMessageBatch request through one shared async client.  Each call is notified once: a second completion
+ * for the same SIP Call-ID, such as onError after onComplete, is skipped.  When SQS_OUTBOX_DIR is set, messages are
+ * appended to an outbox file there before they are sent, and messages a previous run left in it are sent at
+ * startup, so delivery is at least once across restarts.  Failed messages are retried with exponential backoff up
+ * to SQS_RETRY_MAX_MS between attempts, except those SQS rejects as malformed.  SQS_ENDPOINT points the client at an
+ * SQS compatible server such as ElasticMQ.
+ */
 public class SqsNotifier {
     private static final Logger LOG = LoggerFactory.getLogger(SqsNotifier.class);
     private static final String QUEUE_NAME = "nova-sonic-emt";
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int MAX_BATCH_ENTRIES = 10; // SendMessageBatch limit
+    private static final int MAX_IN_FLIGHT_BATCHES = 8;
+    private static final long RETRY_BASE_MILLIS = 500;
+    private static final int RECENT_CALLS = 10000;
+    private static final String OUTBOX_FILE = "sqs-outbox.spool";
+    private static final SqsNotifier INSTANCE = new SqsNotifier();
 
-    private final SqsClient sqsClient;
+    private final SqsAsyncClient sqsClient;
     private final String queueUrl;
     private final boolean enabled;
+    private final BlockingQueue<Spool.Record> queue;
+    private final int queueSize;
+    private final long retryMaxMillis;
+    private final ScheduledThreadPoolExecutor worker;
+    private final Deque<Spool.Record> ready = new ArrayDeque<>(); // worker thread only
+    private final Spool outbox;
+    private final Set<String> recentCallIds = Collections.synchronizedSet(Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > RECENT_CALLS;
+                }
+            }));
+    private final AtomicInteger outstanding = new AtomicInteger(); // taken from the queue, not yet sent
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private int inFlight = 0; // worker thread only
 
-    public SqsNotifier() {
-        String sqsRegion = System.getenv().getOrDefault("SQS_REGION", "us-east-1");
-        String enabledStr = System.getenv().getOrDefault("SQS_ENABLED", "true");
+    private SqsNotifier() {
+        Map<String, String> environ = System.getenv();
+        String sqsRegion = environ.getOrDefault("SQS_REGION", "us-east-1");
+        String enabledStr = environ.getOrDefault("SQS_ENABLED", "true");
         boolean requestedEnabled = "true".equalsIgnoreCase(enabledStr);
+        String endpoint = environ.get("SQS_ENDPOINT");
+        long lingerMillis = Long.parseLong(environ.getOrDefault("SQS_LINGER_MS", "200"));
+        queueSize = Integer.parseInt(environ.getOrDefault("SQS_QUEUE_SIZE", "1000"));
+        retryMaxMillis = Long.parseLong(environ.getOrDefault("SQS_RETRY_MAX_MS", "60000"));
+        queue = new ArrayBlockingQueue<>(queueSize);
 
-        SqsClient tempClient = null;
+        SqsAsyncClient tempClient = null;
         String tempQueueUrl = null;
         boolean actuallyEnabled = false;
 
         if (requestedEnabled) {
             try {
-                tempClient = SqsClient.builder()
+                SqsAsyncClientBuilder builder = SqsAsyncClient.builder()
                         .region(Region.of(sqsRegion))
-                        .build();
+                        .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                                .eventLoopGroupBuilder(SdkEventLoopGroup.builder().numberOfThreads(1))
+                                .maxConcurrency(MAX_IN_FLIGHT_BATCHES));
+                if (endpoint != null && !endpoint.isEmpty()) {
+                    builder.endpointOverride(URI.create(endpoint));
+                }
+                tempClient = builder.build();
 
-                tempQueueUrl = tempClient.getQueueUrl(builder -> builder.queueName(QUEUE_NAME))
-                        .queueUrl();
+                tempQueueUrl = tempClient.getQueueUrl(b -> b.queueName(QUEUE_NAME)).join().queueUrl();
 
                 actuallyEnabled = true;
-                LOG.info("SqsNotifier initialized. Queue URL: {}", tempQueueUrl);
+                LOG.info("SqsNotifier initialized. Queue URL: {}, linger {} ms", tempQueueUrl, lingerMillis);
             } catch (Exception e) {
                 LOG.warn("Failed to initialize SqsNotifier (queue may not exist), SQS notifications will be disabled: {}", e.getMessage());
                 if (tempClient != null) {
@@ -60,8 +133,62 @@ public class SqsNotifier {
         this.sqsClient = tempClient;
         this.queueUrl = tempQueueUrl;
         this.enabled = actuallyEnabled;
+        if (!enabled) {
+            worker = null;
+            outbox = null;
+            return;
+        }
+        worker = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "sqs-notifier");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        outbox = openOutbox(environ.get("SQS_OUTBOX_DIR"));
+        worker.scheduleWithFixedDelay(this::drain, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "sqs-notifier-shutdown"));
+    }
+
+    /**
+     * Opens the outbox and queues the messages a previous run left in it, on the worker thread.
+     */
+    private Spool openOutbox(String directory) {
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        try {
+            Spool opened = new Spool(Paths.get(directory), OUTBOX_FILE);
+            worker.execute(() -> {
+                try {
+                    List<Spool.Record> recovered = opened.recover();
+                    for (Spool.Record record : recovered) {
+                        recentCallIds.add(record.getKey());
+                    }
+                    outstanding.addAndGet(recovered.size());
+                    ready.addAll(recovered);
+                } catch (IOException e) {
+                    LOG.error("Failed to recover SQS outbox in {}", directory, e);
+                }
+            });
+            return opened;
+        } catch (IOException e) {
+            LOG.error("Failed to open SQS outbox in {}, messages will only be kept in memory", directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the process-wide notifier.
+     * @return The notifier
+     */
+    public static SqsNotifier getInstance() {
+        return INSTANCE;
     }
 
+    /**
+     * Queues the call completion message for a call without blocking, once per SIP Call-ID.
+     * @param tracer The call's tracer, holding its variables.
+     */
     public void sendCallCompletedMessage(CallTracer tracer) {
         if (!enabled) {
             LOG.debug("SQS notifications disabled, skipping message");
@@ -85,30 +212,212 @@ public class SqsNotifier {
                 clientId = System.getenv().getOrDefault("CLIENT_ID", "unknown");
             }
 
+            String callId = tracer.getCallId();
+            if (!recentCallIds.add(callId)) {
+                duplicateCount.incrementAndGet();
+                LOG.info("Call completion for call_id={} already queued, skipping duplicate", callId);
+                return;
+            }
+
             Map<String, String> payload = new HashMap<>();
             payload.put("conversationId", conversationId);
             payload.put("clientId", clientId);
 
             String messageBody = objectMapper.writeValueAsString(payload);
 
-            SendMessageRequest sendRequest = SendMessageRequest.builder()
+            if (!queue.offer(new Spool.Record(callId, messageBody))) {
+                droppedCount.incrementAndGet();
+                LOG.error("SQS notification queue full ({} messages), dropping call completion for call_id={} "
+                        + "({} dropped so far)", queueSize, callId, droppedCount.get());
+                return;
+            }
+            LOG.info("Queued call completion for SQS. ConversationId: {}, ClientId: {}", conversationId, clientId);
+
+        } catch (Exception e) {
+            LOG.error("Failed to queue message for SQS", e);
+        }
+    }
+
+    /**
+     * Moves queued messages to the outbox and sends them.  Runs on the worker thread every linger interval.
+     */
+    private void drain() {
+        try {
+            if (!queue.isEmpty() && ready.size() < queueSize) {
+                List<Spool.Record> batch = new ArrayList<>(queue.size());
+                queue.drainTo(batch, queueSize - ready.size());
+                if (outbox != null) {
+                    try {
+                        outbox.append(batch);
+                    } catch (IOException e) {
+                        LOG.error("Failed to write {} message(s) to the SQS outbox, sending them from memory only",
+                                batch.size(), e);
+                    }
+                }
+                outstanding.addAndGet(batch.size());
+                ready.addAll(batch);
+            }
+            sendBatches();
+        } catch (RuntimeException e) {
+            LOG.error("SQS notifier worker failed", e);
+        }
+    }
+
+    private void sendBatches() {
+        while (inFlight < MAX_IN_FLIGHT_BATCHES && !ready.isEmpty()) {
+            List<Spool.Record> batch = new ArrayList<>(MAX_BATCH_ENTRIES);
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH_ENTRIES);
+            while (batch.size() < MAX_BATCH_ENTRIES && !ready.isEmpty()) {
+                Spool.Record record = ready.poll();
+                entries.add(SendMessageBatchRequestEntry.builder()
+                        .id(String.valueOf(batch.size()))
+                        .messageBody(record.getContent())
+                        .build());
+                batch.add(record);
+            }
+            SendMessageBatchRequest request = SendMessageBatchRequest.builder()
                     .queueUrl(queueUrl)
-                    .messageBody(messageBody)
+                    .entries(entries)
                     .build();
+            inFlight++;
+            try {
+                sqsClient.sendMessageBatch(request).whenComplete((response, error) -> onWorker(() -> {
+                    sent(batch, response, error);
+                    sendBatches();
+                }));
+            } catch (RuntimeException e) {
+                sent(batch, null, e);
+            }
+        }
+    }
+
+    private void sent(List<Spool.Record> batch, SendMessageBatchResponse response, Throwable error) {
+        inFlight--;
+        if (error != null) {
+            for (Spool.Record record : batch) {
+                retry(record, error.getMessage());
+            }
+            return;
+        }
+        for (SendMessageBatchResultEntry entry : response.successful()) {
+            Spool.Record record = batch.get(Integer.parseInt(entry.id()));
+            sentCount.incrementAndGet();
+            LOG.info("Sent call completion to SQS. MessageId: {}, call_id={}", entry.messageId(), record.getKey());
+            delivered(record);
+        }
+        for (BatchResultErrorEntry entry : response.failed()) {
+            Spool.Record record = batch.get(Integer.parseInt(entry.id()));
+            if (Boolean.TRUE.equals(entry.senderFault())) {
+                LOG.error("SQS rejected call completion for call_id={}: {} {}", record.getKey(), entry.code(),
+                        entry.message());
+                delivered(record);
+            } else {
+                retry(record, entry.code() + " " + entry.message());
+            }
+        }
+    }
 
-            SendMessageResponse response = sqsClient.sendMessage(sendRequest);
+    private void delivered(Spool.Record record) {
+        outstanding.decrementAndGet();
+        if (outbox != null) {
+            try {
+                outbox.ack(record);
+            } catch (IOException e) {
+                LOG.warn("Failed to record delivery of call completion for call_id={} in the outbox",
+                        record.getKey(), e);
+            }
+        }
+    }
 
-            LOG.info("Sent call completion to SQS. MessageId: {}, ConversationId: {}, ClientId: {}",
-                    response.messageId(), conversationId, clientId);
+    private void retry(Spool.Record record, String reason) {
+        failedAttempts.incrementAndGet();
+        int attempts = record.failedAttempt();
+        long backoff = Math.min(retryMaxMillis, RETRY_BASE_MILLIS << Math.min(attempts - 1, 16));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        LOG.warn("Failed to send call completion for call_id={} to SQS (attempt {}), retrying in {} ms: {}",
+                record.getKey(), attempts, delay, reason);
+        try {
+            worker.schedule(() -> {
+                ready.add(record);
+                sendBatches();
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("SQS notifier stopped, call completion for call_id={} stays pending", record.getKey());
+        }
+    }
 
-        } catch (Exception e) {
-            LOG.error("Failed to send message to SQS", e);
+    private void onWorker(Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("SQS notifier stopped, dropping send result");
         }
     }
 
+    /**
+     * Writes the queued messages to the outbox and stops the worker.  Messages not yet sent stay in the outbox, if
+     * there is one.
+     */
     public void close() {
-        if (sqsClient != null) {
+        if (worker == null || worker.isShutdown()) {
+            return;
+        }
+        worker.execute(() -> {
+            drain();
+            if (outbox != null) {
+                outbox.close();
+            }
+        });
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int pending = getPendingCount();
+        if (pending > 0) {
+            LOG.warn("SQS notifier stopped with {} message(s) not sent{}", pending,
+                    outbox != null ? ", kept in the outbox" : "");
+        }
+        try {
             sqsClient.close();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to close SQS client", e);
         }
     }
+
+    /**
+     * Returns the number of messages queued or being sent.
+     */
+    public int getPendingCount() {
+        return outstanding.get() + queue.size();
+    }
+
+    /**
+     * Returns the number of messages sent.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Returns the number of failed send attempts.
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of repeated completions skipped.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
 }
@@ -2,38 +2,76 @@ package com.example.s2s.voipgateway.nova;
 
 import com.example.s2s.voipgateway.notification.SqsNotifier;
 import com.example.s2s.voipgateway.nova.event.*;
+import com.example.s2s.voipgateway.nova.io.AudioAssetCache;
 import com.example.s2s.voipgateway.nova.io.QueuedUlawInputStream;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import com.example.s2s.voipgateway.nova.tools.ToolExecutor;
+import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
 import com.example.s2s.voipgateway.tracing.CallTracer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
-import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Common NovaS2SEventHandler functionality.
  */
 public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler {
     private static final Logger log = LoggerFactory.getLogger(AbstractNovaS2SEventHandler.class);
-    private static final SqsNotifier sqsNotifier = new SqsNotifier();
-    private static final Base64.Decoder decoder = Base64.getDecoder();
     private static final String ERROR_AUDIO_FILE = "error.wav";
+    private static final String GOODBYE_FILENAME = System.getenv().getOrDefault("GOODBYE_FILENAME", "goodbye.wav");
+    private static final String ROLE_USER = "USER";
+    private static final String CONTENT_TYPE_AUDIO = "AUDIO";
+    private static final int MAX_CANCELLED_CONTENT_IDS = 16;
+    private static final int ULAW_BYTES_PER_MILLI = 8;
+    private static final String DEFAULT_TOOL_TIMEOUT_MS = "8000";
+    private static final long FILLER_DELAY_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("FILLER_DELAY_MS", "0"));
+    private static final long FILLER_MAX_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("FILLER_MAX_MS", "10000"));
+    private static final String FILLER_FILENAME = System.getenv().getOrDefault("FILLER_FILENAME", "thinking.wav");
+    private static final byte[] THINKING_TONE = renderThinkingTone();
+    private static final long HANGUP_CHECK_MILLIS = 100;
+    private static final long HANGUP_TAIL_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("HANGUP_TAIL_MS", "500"));
+    private static final long HANGUP_MAX_WAIT_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("HANGUP_MAX_WAIT_MS", "15000"));
     private final QueuedUlawInputStream audioStream = new QueuedUlawInputStream();
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private InteractObserver<NovaSonicEvent> outbound;
-    private String promptName;
+    private volatile InteractObserver<NovaSonicEvent> outbound;
+    private volatile String promptName;
     private boolean debugAudioOutput;
     private boolean playedErrorSound = false;
+    private volatile String currentAudioContentId;
+    private volatile Runnable hangupAction;
+    private volatile long hangupRequestedNanos = 0;
+    private volatile boolean farewellStarted = false;
+    private volatile boolean farewellEnded = false;
+    private long drainedSinceNanos = 0; // touched by the hangup check only
+    private final AtomicBoolean hungUp = new AtomicBoolean();
+    private volatile CallActivity activity;
+    private volatile boolean terminating = false;
+    private final AtomicBoolean traceFinished = new AtomicBoolean();
+    private final Set<String> cancelledContentIds = Collections.newSetFromMap(
+            Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_CANCELLED_CONTENT_IDS;
+                }
+            }));
     protected CallTracer tracer; // null-safe: tracing is optional
 
     public AbstractNovaS2SEventHandler() {
@@ -63,7 +101,12 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
 
     @Override
     public void handleContentStart(JsonNode node) {
-
+        if (CONTENT_TYPE_AUDIO.equals(node.path("type").asText()) && node.has("contentId")) {
+            currentAudioContentId = node.get("contentId").asText();
+            if (hangupRequestedNanos != 0) {
+                farewellStarted = true;
+            }
+        }
     }
 
     @Override
@@ -71,18 +114,29 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
         String content = node.get("content").asText();
         String role = node.get("role").asText();
         log.info("Nova says ({}): {}", role, content);
+        if (ROLE_USER.equals(role) && activity != null) {
+            // Nova transcribed the caller, which counts as voice even below the level detector's threshold
+            activity.inboundVoice();
+        }
     }
 
     @Override
-    public void handleAudioOutput(JsonNode node) {
-        String content = node.get("content").asText();
-        String role = node.get("role").asText();
+    public void handleAudioOutput(String contentId, String role, byte[] ulaw, int offset, int length) {
+        if (contentId != null && cancelledContentIds.contains(contentId)) {
+            log.debug("Dropping late audio for interrupted content {}", contentId);
+            return;
+        }
+        if (terminating) {
+            return;
+        }
+        if (activity != null) {
+            activity.outboundAudio();
+        }
         if (debugAudioOutput) {
-            log.info("Received audio output {} from {}", content, role);
+            log.info("Received audio output of {} bytes for content {} from {}", length, contentId, role);
         }
-        byte[] data = decoder.decode(content);
         try {
-            audioStream.append(data);
+            audioStream.appendUlaw(ulaw, offset, length);
         } catch (InterruptedException e) {
             log.error("Failed to append audio data to queued input stream", e);
         }
@@ -94,6 +148,22 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
         String contentId = node.get("contentId").asText();
         String stopReason = node.has("stopReason") ? node.get("stopReason").asText() : "";
         log.info("Content ended: {} with reason: {}", contentId, stopReason);
+        if (farewellStarted && (CONTENT_TYPE_AUDIO.equals(node.path("type").asText())
+                || contentId.equals(currentAudioContentId))) {
+            farewellEnded = true;
+        }
+    }
+
+    @Override
+    public void handleInterruption(String contentId) {
+        String interrupted = contentId != null ? contentId : currentAudioContentId;
+        if (terminating || (interrupted != null && !cancelledContentIds.add(interrupted))) {
+            // already flushed for this content, or only the goodbye is left to play
+            return;
+        }
+        int discarded = audioStream.flush();
+        log.info("Barge-in on content {}: discarded {} bytes (~{} ms) of queued audio",
+                interrupted, discarded, discarded / ULAW_BYTES_PER_MILLI);
     }
 
     @Override
@@ -116,18 +186,7 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
     @Override
     public void onError(Exception e) {
         log.error("Stream error: {}", e.getMessage(), e);
-        if (tracer != null) {
-            try {
-                sqsNotifier.sendCallCompletedMessage(tracer);
-            } catch (Exception ex) {
-                log.error("Failed to send SQS notification on error", ex);
-            }
-            try {
-                tracer.close();
-            } catch (Exception ex) {
-                log.error("Failed to close tracer", ex);
-            }
-        }
+        finishTrace();
         if (!playedErrorSound) {
             try {
                 playAudioFile(ERROR_AUDIO_FILE);
@@ -142,18 +201,27 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
     public void onComplete() {
         log.info("Stream complete");
         if (tracer != null) {
-            String callId = tracer.getCallId();
-            log.info("Call finished - call_id: {}", callId);
-            try {
-                sqsNotifier.sendCallCompletedMessage(tracer);
-            } catch (Exception e) {
-                log.error("Failed to send SQS notification", e);
-            }
-            try {
-                tracer.close();
-            } catch (Exception e) {
-                log.error("Failed to close tracer", e);
-            }
+            log.info("Call finished - call_id: {}", tracer.getCallId());
+        }
+        finishTrace();
+    }
+
+    /**
+     * Sends the call completed notification and writes the trace, once per call whichever way the stream ends.
+     */
+    private void finishTrace() {
+        if (tracer == null || !traceFinished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            SqsNotifier.getInstance().sendCallCompletedMessage(tracer);
+        } catch (Exception e) {
+            log.error("Failed to send SQS notification", e);
+        }
+        try {
+            tracer.close();
+        } catch (Exception e) {
+            log.error("Failed to close tracer", e);
         }
     }
 
@@ -167,6 +235,106 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
         this.outbound = outbound;
     }
 
+    @Override
+    public void setHangupAction(Runnable hangup) {
+        this.hangupAction = hangup;
+    }
+
+    @Override
+    public void setCallActivity(CallActivity activity) {
+        this.activity = activity;
+        activity.setTerminator(this::terminate);
+    }
+
+    /**
+     * Ends the call from the gateway side, e.g. when the call reaper finds it idle: drops whatever Nova is still
+     * saying, plays the goodbye prompt and hangs up once it has played out.
+     * @param reason Why the call is ended, for the logs.
+     */
+    protected void terminate(String reason) {
+        if (hangupRequestedNanos != 0) {
+            log.info("Call already hanging up, not ending it again ({})", reason);
+            return;
+        }
+        log.info("Ending call: {}", reason);
+        terminating = true;
+        audioStream.flush();
+        try {
+            playAudioFile(GOODBYE_FILENAME);
+        } catch (FileNotFoundException e) {
+            log.info("{} not found, hanging up without a goodbye", GOODBYE_FILENAME);
+        }
+        // the goodbye is the farewell: hang up as soon as it has played
+        farewellStarted = true;
+        farewellEnded = true;
+        requestHangup();
+    }
+
+    /**
+     * Ends a call that could not get a Nova session: plays the error prompt and hangs up once it has played.
+     * @param e The reason the call has no session.
+     */
+    public void failCall(Exception e) {
+        onError(e);
+        // the error prompt is the farewell
+        farewellStarted = true;
+        farewellEnded = true;
+        requestHangup();
+    }
+
+    /**
+     * Hangs up once an audio response started after this call (the farewell) has ended and its audio has been
+     * played out, or after HANGUP_MAX_WAIT_MS at the latest.
+     */
+    protected void requestHangup() {
+        if (hangupAction == null) {
+            log.warn("Hangup requested but no hangup action is set");
+            return;
+        }
+        if (hangupRequestedNanos != 0) {
+            return;
+        }
+        hangupRequestedNanos = System.nanoTime();
+        log.info("Hangup requested, waiting for the final audio to play out");
+        scheduleHangupCheck();
+    }
+
+    private void scheduleHangupCheck() {
+        CompletableFuture.delayedExecutor(HANGUP_CHECK_MILLIS, TimeUnit.MILLISECONDS).execute(this::checkHangup);
+    }
+
+    private void checkHangup() {
+        if (hungUp.get()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(now - hangupRequestedNanos);
+        boolean drained = farewellEnded && audioStream.getQueuedBytes() == 0;
+        if (!drained) {
+            drainedSinceNanos = 0;
+        } else if (drainedSinceNanos == 0) {
+            drainedSinceNanos = now;
+        }
+        boolean tailPlayed = drained && TimeUnit.NANOSECONDS.toMillis(now - drainedSinceNanos) >= HANGUP_TAIL_MILLIS;
+        if (tailPlayed || waitedMillis >= HANGUP_MAX_WAIT_MILLIS) {
+            hangUp(tailPlayed ? "final audio played" : "timed out waiting for final audio", waitedMillis);
+        } else {
+            scheduleHangupCheck();
+        }
+    }
+
+    private void hangUp(String reason, long waitedMillis) {
+        if (!hungUp.compareAndSet(false, true)) {
+            return;
+        }
+        log.info("Hanging up ({}) {} ms after the request", reason, waitedMillis);
+        try {
+            hangupAction.run();
+        } catch (RuntimeException e) {
+            log.error("Hangup failed", e);
+        }
+    }
+
     /**
      * Handles the actual invocation of a tool.
      * @param toolUseId The tool use id.
@@ -176,14 +344,100 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
      */
     public abstract void handleToolInvocation(String toolUseId, String toolName, String content, Map<String,Object> output);
 
+    /**
+     * Returns the time a tool may take before its fallback result is sent, from TOOL_TIMEOUT_MS_{TOOL NAME}
+     * (upper case) or TOOL_TIMEOUT_MS.
+     * @param toolName The tool name.
+     * @return The timeout in milliseconds, 0 for no limit.
+     */
+    protected long getToolTimeoutMillis(String toolName) {
+        Map<String, String> environ = System.getenv();
+        String timeout = environ.get("TOOL_TIMEOUT_MS_" + String.valueOf(toolName).toUpperCase());
+        return Long.parseLong(timeout != null
+                ? timeout : environ.getOrDefault("TOOL_TIMEOUT_MS", DEFAULT_TOOL_TIMEOUT_MS));
+    }
+
+    /**
+     * Fills in the result sent to Nova when a tool times out, fails or cannot be scheduled.
+     * @param toolUseId The tool use id.
+     * @param toolName The tool name.
+     * @param error Why the tool produced no result.
+     * @param output The output node.
+     */
+    protected void handleToolFailure(String toolUseId, String toolName, Throwable error,
+                                     Map<String, Object> output) {
+        output.put("error", error instanceof TimeoutException
+                ? "The " + toolName + " tool did not answer in time"
+                : "The " + toolName + " tool failed");
+        output.put("instruction",
+                "Tell the user the request could not be completed right now and offer to try again.");
+    }
+
     @Override
     public void handleToolUse(JsonNode node, String toolUseId, String toolName, String content) {
         log.info("Tool {} invoked with id={}, content={}", toolName, toolUseId, content);
-        String contentName = UUID.randomUUID().toString();
-        try {
+        long startNanos = System.nanoTime();
+        CompletableFuture<Map<String, Object>> invocation = ToolExecutor.getInstance().execute(() -> {
             Map<String, Object> contentNode = new HashMap<>();
             handleToolInvocation(toolUseId, toolName, content, contentNode);
+            return contentNode;
+        }, getToolTimeoutMillis(toolName));
+        if (FILLER_DELAY_MILLIS > 0) {
+            CompletableFuture.delayedExecutor(FILLER_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                    .execute(() -> startFiller(toolName, invocation));
+        }
+        invocation.whenComplete((contentNode, error) -> {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                log.warn("Tool {} (id={}) produced no result after {} ms, sending fallback: {}",
+                        toolName, toolUseId, elapsedMillis, cause.toString());
+                contentNode = new HashMap<>();
+                handleToolFailure(toolUseId, toolName, cause, contentNode);
+            } else {
+                log.info("Tool {} (id={}) completed in {} ms", toolName, toolUseId, elapsedMillis);
+            }
+            sendToolResult(toolUseId, contentNode);
+        });
+    }
+
+    /**
+     * Plays the filler clip while a tool is still running and nothing else is being played.  The clip stops when
+     * Nova's answer starts playing.
+     */
+    private void startFiller(String toolName, CompletableFuture<?> invocation) {
+        if (invocation.isDone() || audioStream.getQueuedBytes() > 0) {
+            return;
+        }
+        String tenant = tracer != null ? tracer.getVariable("client_id") : null;
+        byte[] clip = AudioAssetCache.getInstance().get(tenant, FILLER_FILENAME);
+        audioStream.startFiller(clip != null ? clip : THINKING_TONE, FILLER_MAX_MILLIS);
+        log.info("Tool {} still running after {} ms, playing filler audio", toolName, FILLER_DELAY_MILLIS);
+    }
+
+    /**
+     * A soft 440 Hz blip once a second, used as filler when no filler clip is configured.
+     */
+    private static byte[] renderThinkingTone() {
+        int samples = 8000;
+        int toneSamples = 1200;
+        int ramp = 120;
+        byte[] ulaw = new byte[samples];
+        for (int i = 0; i < samples; i++) {
+            double envelope = i >= toneSamples ? 0 : Math.min(1.0, Math.min(i, toneSamples - i) / (double) ramp);
+            double sample = Math.sin(2 * Math.PI * 440 * i / 8000) * 1200 * envelope;
+            ulaw[i] = PcmToULawTranscoder.linearToULaw((short) sample);
+        }
+        return ulaw;
+    }
 
+    /**
+     * Sends a tool result as its own content block.  Runs on the tool's thread.
+     */
+    private void sendToolResult(String toolUseId, Map<String, Object> contentNode) {
+        String contentName = UUID.randomUUID().toString();
+        try {
             ToolResultEvent toolResultEvent = new ToolResultEvent();
             Map<String,Object> toolResult = toolResultEvent.getToolResult().getProperties();
             toolResult.put("promptName", promptName);
@@ -195,41 +449,27 @@ public abstract class AbstractNovaS2SEventHandler implements NovaS2SEventHandler
             outbound.onNext(toolResultEvent);
             outbound.onNext(ContentEndEvent.create(promptName, contentName));
         } catch (Exception e) {
-            throw new RuntimeException("Error creating JSON payload for toolResult", e);
+            log.error("Error sending toolResult for tool use {}", toolUseId, e);
         }
     }
 
     /**
-     * Plays an audio file, either relative to the working directory or from the classpath.
+     * Plays an audio file from the shared audio asset cache, which looks for it relative to the working directory
+     * or on the classpath, preferring a version for the call's tenant.
      * @param filename The file name of the file to play.
      */
     protected void playAudioFile(String filename) throws FileNotFoundException {
-        InputStream is = null;
-        File file = new File(filename);
-        if (file.exists()) {
-            try { is = new FileInputStream(file); }
-            catch (FileNotFoundException e) {
-                // we already checked if it exists ... this should never happen
-            }
-        } else {
-            is = getClass().getClassLoader().getResourceAsStream(filename);
-        }
-        if (is != null) {
-            try {
-                AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(is));
-                AudioInputStream transcodedStream = AudioSystem.getAudioInputStream(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 8000, 16, 1, 2, 8000, false), audioInputStream);
-                audioStream.append(transcodedStream.readAllBytes());
-                log.debug("Wrote audio from {} to output stream ...", filename);
-            } catch (RuntimeException e) {
-                log.error("Runtime exception while playing audio from {}", filename, e);
-            } catch (InterruptedException e) {
-                log.error("Interrupted while appending audio to queued input stream", e);
-            } catch (IOException | UnsupportedAudioFileException e) {
-                log.error("Failed to load {}", filename, e);
-            }
-        } else {
+        String tenant = tracer != null ? tracer.getVariable("client_id") : null;
+        byte[] ulaw = AudioAssetCache.getInstance().get(tenant, filename);
+        if (ulaw == null) {
             throw new FileNotFoundException("Could not find "+filename);
         }
+        try {
+            audioStream.appendUlaw(ulaw, 0, ulaw.length);
+            log.debug("Wrote audio from {} to output stream ...", filename);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while appending audio to queued input stream", e);
+        }
     }
 
     private void sendToolContentStart(String toolUseId, String contentName) {
@@ -0,0 +1,124 @@
+package com.example.s2s.voipgateway.nova;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.ProtocolNegotiation;
+import software.amazon.awssdk.http.nio.netty.Http2Configuration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClientBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide registry of Bedrock Runtime clients.
+ *
+ * Holds one pooled HTTP/2 client per region/endpoint, shared by every call.  All clients run on a single
+ * Netty event loop group, so new calls open a stream on an existing connection instead of paying a new
+ * TLS/HTTP/2 handshake and a new set of event loop threads.  Clients are closed by a JVM shutdown hook.
+ */
+public class BedrockClientRegistry {
+    private static final Logger log = LoggerFactory.getLogger(BedrockClientRegistry.class);
+    private static final BedrockClientRegistry INSTANCE = new BedrockClientRegistry();
+    private final Map<String, BedrockRuntimeAsyncClient> clients = new ConcurrentHashMap<>();
+    private final int maxConcurrency;
+    private final long maxStreamsPerConnection;
+    private final SdkEventLoopGroup eventLoopGroup;
+    private volatile boolean closed = false;
+
+    private BedrockClientRegistry() {
+        Map<String, String> environ = System.getenv();
+        maxConcurrency = Integer.parseInt(environ.getOrDefault("BEDROCK_MAX_CONCURRENCY", "20"));
+        maxStreamsPerConnection = Long.parseLong(environ.getOrDefault("BEDROCK_HTTP2_MAX_STREAMS", "0"));
+        int eventLoopThreads = Integer.parseInt(environ.getOrDefault("BEDROCK_EVENT_LOOP_THREADS", "0"));
+        SdkEventLoopGroup.Builder groupBuilder = SdkEventLoopGroup.builder();
+        if (eventLoopThreads > 0) {
+            groupBuilder.numberOfThreads(eventLoopThreads);
+        }
+        eventLoopGroup = groupBuilder.build();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "bedrock-client-shutdown"));
+    }
+
+    /**
+     * Retrieves the process-wide registry.
+     * @return The registry
+     */
+    public static BedrockClientRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Retrieves the shared client for a region, creating it on first use.
+     * @param region The Bedrock region.
+     * @param endpointOverride Optional endpoint override, or null to use the regional endpoint.
+     * @return The shared client
+     */
+    public BedrockRuntimeAsyncClient getClient(Region region, URI endpointOverride) {
+        if (closed) {
+            throw new IllegalStateException("Bedrock client registry is closed");
+        }
+        String key = endpointOverride == null ? region.id() : region.id() + "|" + endpointOverride;
+        return clients.computeIfAbsent(key, k -> createClient(region, endpointOverride));
+    }
+
+    /**
+     * Creates a new client backed by the shared event loop group.
+     */
+    private BedrockRuntimeAsyncClient createClient(Region region, URI endpointOverride) {
+        log.info("Creating shared Bedrock client for region={} endpoint={} (maxConcurrency={})",
+                region, endpointOverride != null ? endpointOverride : "default", maxConcurrency);
+        NettyNioAsyncHttpClient.Builder nettyBuilder = NettyNioAsyncHttpClient.builder()
+                .eventLoopGroup(eventLoopGroup)
+                .readTimeout(Duration.of(180, ChronoUnit.SECONDS))
+                .maxConcurrency(maxConcurrency)
+                .protocol(Protocol.HTTP2)
+                // ALPN needs TLS; cleartext endpoints such as the local mock server use HTTP/2 prior knowledge
+                .protocolNegotiation(isCleartext(endpointOverride)
+                        ? ProtocolNegotiation.ASSUME_PROTOCOL : ProtocolNegotiation.ALPN);
+        if (maxStreamsPerConnection > 0) {
+            nettyBuilder.http2Configuration(Http2Configuration.builder()
+                    .maxStreams(maxStreamsPerConnection)
+                    .build());
+        }
+
+        BedrockRuntimeAsyncClientBuilder builder = BedrockRuntimeAsyncClient.builder()
+                .region(region)
+                .httpClientBuilder(nettyBuilder);
+        if (endpointOverride != null) {
+            builder.endpointOverride(endpointOverride);
+        }
+        return builder.build();
+    }
+
+    private static boolean isCleartext(URI endpoint) {
+        return endpoint != null && "http".equalsIgnoreCase(endpoint.getScheme());
+    }
+
+    /**
+     * Closes all clients and the shared event loop group.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        log.info("Closing {} shared Bedrock client(s)", clients.size());
+        for (BedrockRuntimeAsyncClient client : clients.values()) {
+            try {
+                client.close();
+            } catch (RuntimeException e) {
+                log.warn("Failed to close Bedrock client", e);
+            }
+        }
+        clients.clear();
+        eventLoopGroup.eventLoopGroup().shutdownGracefully(0, 5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.s2s.voipgateway.nova;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Activity clock for one call, watched by the call reaper: when the caller last spoke, when Nova last sent audio,
+ * whether the call's Nova stream is still open, and how to end the call from the gateway side.  The media path
+ * stamps the clock, so updates are plain volatile writes.
+ */
+public class CallActivity {
+    private final long startNanos = System.nanoTime();
+    private volatile long lastInboundVoiceNanos = startNanos;
+    private volatile long lastOutboundAudioNanos = startNanos;
+    private volatile Consumer<String> terminator;
+    private volatile Runnable abortAction;
+    private volatile boolean streamOpened = false;
+    private volatile boolean streamClosed = false;
+
+    /**
+     * Records that the caller is speaking.
+     */
+    public void inboundVoice() {
+        lastInboundVoiceNanos = System.nanoTime();
+    }
+
+    /**
+     * Records that Nova sent audio for the caller.
+     */
+    public void outboundAudio() {
+        lastOutboundAudioNanos = System.nanoTime();
+    }
+
+    /**
+     * Records that the call's Nova stream is bound.
+     * @param abort Tears the stream down if it does not close by itself.
+     */
+    public void streamOpened(Runnable abort) {
+        this.abortAction = abort;
+        this.streamOpened = true;
+    }
+
+    /**
+     * Records that the call's Nova stream has ended.
+     */
+    public void streamClosed() {
+        this.streamClosed = true;
+    }
+
+    /**
+     * Returns true while the call's Nova stream is bound and has not ended.
+     */
+    public boolean isStreamOpen() {
+        return streamOpened && !streamClosed;
+    }
+
+    /**
+     * Sets how the call is ended from the gateway side, normally by the event handler.
+     * @param terminator Receives the reason and ends the call.
+     */
+    public void setTerminator(Consumer<String> terminator) {
+        this.terminator = terminator;
+    }
+
+    /**
+     * Ends the call through the terminator.
+     * @param reason Why the call is ended, for the logs.
+     * @return false if no terminator is set yet, i.e. the media streams have not started.
+     */
+    public boolean terminate(String reason) {
+        Consumer<String> current = terminator;
+        if (current == null) {
+            return false;
+        }
+        current.accept(reason);
+        return true;
+    }
+
+    /**
+     * Tears down the Nova stream, if one was opened.
+     */
+    public void abort() {
+        Runnable current = abortAction;
+        if (current != null && !streamClosed) {
+            current.run();
+        }
+    }
+
+    /**
+     * Returns the time since the call was answered.
+     */
+    public long getAgeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the time since either side last spoke.
+     */
+    public long getIdleMillis() {
+        return Math.min(getMillisSinceInboundVoice(), getMillisSinceOutboundAudio());
+    }
+
+    public long getMillisSinceInboundVoice() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastInboundVoiceNanos);
+    }
+
+    public long getMillisSinceOutboundAudio() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastOutboundAudioNanos);
+    }
+}
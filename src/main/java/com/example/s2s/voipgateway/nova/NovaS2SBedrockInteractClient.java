@@ -4,8 +4,7 @@ package com.example.s2s.voipgateway.nova;
 import com.example.s2s.voipgateway.nova.event.*;
 import com.example.s2s.voipgateway.nova.observer.InputEventsInteractObserver;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
-import io.reactivex.rxjava3.processors.ReplayProcessor;
-import io.reactivex.rxjava3.schedulers.Schedulers;
+import com.example.s2s.voipgateway.nova.observer.OutboundEventPublisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
@@ -13,7 +12,6 @@ import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidir
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamRequest;
 
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Client for setting up Nova Sonic asynchronous streams.
@@ -42,15 +40,23 @@ public class NovaS2SBedrockInteractClient {
             TextInputEvent systemPrompt,
             NovaS2SEventHandler eventHandler
     ) {
+        return openSession(sessionStartEvent).bind(promptStartEvent, systemPrompt, eventHandler);
+    }
+
+    /**
+     * Opens a new bidirectional stream with Nova Sonic and sends the session start event.  The session is not
+     * bound to a call until {@link NovaSession#bind} is invoked.
+     * @param sessionStartEvent The SessionStartEvent
+     * @return The open session.
+     */
+    public NovaSession openSession(SessionStartEvent sessionStartEvent) {
         InvokeModelWithBidirectionalStreamRequest request = InvokeModelWithBidirectionalStreamRequest.builder()
                 .modelId(modelId)
                 .build();
 
-        // we expire the messages after one minute to save memory after connection as this is aligned with the timeout
-        ReplayProcessor<InvokeModelWithBidirectionalStreamInput> publisher = ReplayProcessor.createWithTime(
-                1, TimeUnit.MINUTES, Schedulers.io()
-        );
-        NovaS2SResponseHandler responseHandler = new NovaS2SResponseHandler(eventHandler);
+        // only the bootstrap events are retained for replay; audio is held in a bounded queue until the SDK requests it
+        OutboundEventPublisher<InvokeModelWithBidirectionalStreamInput> publisher = OutboundEventPublisher.fromEnvironment();
+        NovaS2SResponseHandler responseHandler = new NovaS2SResponseHandler();
         log.info("Invoking model with bidirectional stream ...");
         CompletableFuture<Void> completableFuture = bedrockClient.invokeModelWithBidirectionalStream(request, publisher, responseHandler);
 
@@ -72,18 +78,7 @@ public class NovaS2SBedrockInteractClient {
         // send the session start
         log.info("Sending session start event ...");
         inputObserver.onNext(sessionStartEvent);
-        log.info("Sending prompt start event ...");
-        inputObserver.onNext(promptStartEvent);
-
-        log.info("Sending system prompt ...");
-        inputObserver.onNext(ContentStartEvent.createTextContentStart(systemPrompt.getTextInput().getPromptName(),
-                systemPrompt.getTextInput().getContentName()));
-        inputObserver.onNext(systemPrompt);
-        inputObserver.onNext(ContentEndEvent.create(systemPrompt.getTextInput().getPromptName(),
-                systemPrompt.getTextInput().getContentName()));
-
 
-        log.info("Input observer ready");
-        return inputObserver;
+        return new NovaSession(inputObserver, publisher, responseHandler, completableFuture);
     }
 }
@@ -34,10 +34,15 @@ public interface NovaS2SEventHandler {
     void handleTextOutput(JsonNode node);
 
     /**
-     * Handles an audioOutput event.
-     * @param node
+     * Handles an audioOutput event.  The audio has already been decoded to 8 kHz μ-law; the buffer is reused for the
+     * next event, so implementations must copy the audio before returning.
+     * @param contentId The content id of the audio
+     * @param role The role of the speaker
+     * @param ulaw Buffer holding the μ-law audio
+     * @param offset Offset of the audio in the buffer
+     * @param length Number of μ-law bytes
      */
-    void handleAudioOutput(JsonNode node);
+    void handleAudioOutput(String contentId, String role, byte[] ulaw, int offset, int length);
 
     /**
      * Handles a contentEnd event.
@@ -45,6 +50,12 @@ public interface NovaS2SEventHandler {
      */
     void handleContentEnd(JsonNode node);
 
+    /**
+     * Handles the caller interrupting Nova (barge-in).
+     * @param contentId The interrupted content id, or null if it is not known.
+     */
+    void handleInterruption(String contentId);
+
     /**
      * Handles a completionEnd event.
      * @param node
@@ -83,6 +94,21 @@ public interface NovaS2SEventHandler {
      */
     InputStream getAudioInputStream();
 
+    /**
+     * Sets the action that hangs up the call, for conversations ended from the Nova side (e.g. the endCall tool).
+     * @param hangup Hangs up the SIP call
+     */
+    default void setHangupAction(Runnable hangup) {
+    }
+
+    /**
+     * Sets the call's activity clock, which the handler stamps with Nova's audio and uses to let the call reaper
+     * end the call.
+     * @param activity The call's activity clock
+     */
+    default void setCallActivity(CallActivity activity) {
+    }
+
     /**
      * Retrieves tool configuration.
      * @return
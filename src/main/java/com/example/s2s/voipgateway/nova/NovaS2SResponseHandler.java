@@ -2,8 +2,13 @@ package com.example.s2s.voipgateway.nova;
 
 import static software.amazon.awssdk.thirdparty.io.netty.util.internal.ObjectUtil.checkNotNull;
 
+import com.example.s2s.voipgateway.nova.transcode.ULawEncodingBuffer;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.async.SdkPublisher;
@@ -12,8 +17,10 @@ import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidir
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamResponse;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithBidirectionalStreamResponseHandler;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Asynchronous response handler for Amazon Nova Sonic sessions.
@@ -21,21 +28,65 @@ import java.util.concurrent.CompletableFuture;
 public class NovaS2SResponseHandler implements InvokeModelWithBidirectionalStreamResponseHandler {
     private static final Logger log = LoggerFactory.getLogger(NovaS2SResponseHandler.class);
     public static final String TYPE_TOOL = "TOOL";
-    private final NovaS2SEventHandler handler;
+    public static final String TYPE_AUDIO = "AUDIO";
+    public static final String STOP_REASON_INTERRUPTED = "INTERRUPTED";
+    private volatile NovaS2SEventHandler handler;
+    private volatile Consumer<String> audioOutputListener;
+    private final CompletableFuture<Void> established = new CompletableFuture<>();
+    private static final int AUDIO_BUFFER_SIZE = 8192;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ULawEncodingBuffer audioBuffer = new ULawEncodingBuffer(AUDIO_BUFFER_SIZE);
     private String toolUseId;
     private String toolUseContent;
     private String toolName;
     private boolean debugResponses = false;
+    private boolean eventStreamStarted = false;
+    private boolean startDelivered = false;
+
+    /**
+     * Creates a response handler that is not yet bound to a call.  Output received before
+     * {@link #bind(NovaS2SEventHandler)} is logged and dropped.
+     */
+    public NovaS2SResponseHandler() {
+        debugResponses = System.getenv().getOrDefault("DEBUG_RESPONSES","false").equalsIgnoreCase("true");
+    }
 
     public NovaS2SResponseHandler(NovaS2SEventHandler handler) {
+        this();
+        bind(handler);
+    }
+
+    /**
+     * Attaches the call's event handler.  If the event stream is already open, the handler is started immediately.
+     * @param handler The event handler for the call.
+     */
+    public synchronized void bind(NovaS2SEventHandler handler) {
         this.handler = checkNotNull(handler, "handler cannot be null");
-        debugResponses = System.getenv().getOrDefault("DEBUG_RESPONSES","false").equalsIgnoreCase("true");
+        if (eventStreamStarted && !startDelivered) {
+            startDelivered = true;
+            handler.onStart();
+        }
+    }
+
+    /**
+     * Registers a callback invoked with the content id of every audioOutput event received.
+     * @param listener The callback.
+     */
+    public void setAudioOutputListener(Consumer<String> listener) {
+        this.audioOutputListener = listener;
+    }
+
+    /**
+     * Future that completes once Bedrock has accepted the stream, or fails if the stream fails first.
+     */
+    public CompletableFuture<Void> getEstablished() {
+        return established;
     }
 
     @Override
     public void responseReceived(InvokeModelWithBidirectionalStreamResponse response) {
         log.info("Response received with Bedrock Nova S2S request id: {}", response.responseMetadata().requestId());
+        established.complete(null);
     }
 
     @Override
@@ -44,74 +95,195 @@ public class NovaS2SResponseHandler implements InvokeModelWithBidirectionalStrea
         CompletableFuture<Void> completableFuture = sdkPublisher.subscribe((output) -> output.accept(new Visitor() {
             @Override
             public void visitChunk(BidirectionalOutputPayloadPart event) {
-                String payloadString =
-                        StandardCharsets.UTF_8.decode((event.bytes().asByteBuffer().rewind().duplicate())).toString();
+                byte[] payload = event.bytes().asByteArrayUnsafe();
                 if (debugResponses) {
-                    log.debug("Received chunk: {}", payloadString);
+                    log.debug("Received chunk: {}", new String(payload, StandardCharsets.UTF_8));
                 }
-                handleJsonResponse(payloadString);
+                handleJsonResponse(payload, 0, payload.length);
             }
         }));
 
         // if any of the chunks fail to parse or be handled ensure to send an error or they will get lost
         completableFuture.exceptionally(t -> {
             log.error("Event stream error", t);
-            handler.onError(new Exception(t));
+            NovaS2SEventHandler current = handler;
+            if (current != null) {
+                current.onError(new Exception(t));
+            }
             return null;
         });
 
-        handler.onStart();
+        established.complete(null);
+        synchronized (this) {
+            eventStreamStarted = true;
+            if (handler != null && !startDelivered) {
+                startDelivered = true;
+                handler.onStart();
+            }
+        }
     }
 
     @Override
     public void exceptionOccurred(Throwable t) {
         log.error("Event stream error, exception occurred", t);
-        handler.onError(new Exception(t));
+        established.completeExceptionally(t);
+        NovaS2SEventHandler current = handler;
+        if (current != null) {
+            current.onError(new Exception(t));
+        }
     }
 
     @Override
     public void complete() {
         log.info("Event stream complete");
-        handler.onComplete();
+        NovaS2SEventHandler current = handler;
+        if (current != null) {
+            current.onComplete();
+        }
     }
 
     /**
      * Handles a JSON response from the event stream.
-     * @param msg The JSON string to be handled
+     *
+     * The event type is read first with a streaming parser.  audioOutput events are decoded field by field, with the
+     * base64 content transcoded straight into a reusable μ-law buffer; all other events are read into a JsonNode.
+     * Package-private so the benchmarks can feed recorded payloads without an SDK event stream.
+     * @param payload The buffer holding the UTF-8 JSON message
+     * @param offset The offset of the message
+     * @param length The length of the message
      */
-    private void handleJsonResponse(String msg) {
-        try {
-            JsonNode rootNode = objectMapper.readTree(msg);
-            JsonNode eventNode = rootNode.get("event");
-
-            if (eventNode != null) {
-                if (eventNode.has("completionStart")) {
-                    handler.handleCompletionStart(eventNode.get("completionStart"));
-                } else if (eventNode.has("contentStart")) {
-                    handler.handleContentStart(eventNode.get("contentStart"));
-                } else if (eventNode.has("textOutput")) {
-                    handler.handleTextOutput(eventNode.get("textOutput"));
-                } else if (eventNode.has("audioOutput")) {
-                    handler.handleAudioOutput(eventNode.get("audioOutput"));
-                } else if (eventNode.has("toolUse")) {
-                    toolUseId = eventNode.get("toolUse").get("toolUseId").asText();
-                    toolName = eventNode.get("toolUse").get("toolName").asText();
-                    toolUseContent = eventNode.get("toolUse").get("content").asText();
-                } else if (eventNode.has("contentEnd")) {
-                    if (TYPE_TOOL.equals(eventNode.get("contentEnd").get("type").asText())) {
-                        handler.handleToolUse(eventNode, toolUseId, toolName, toolUseContent);
-                    } else {
-                        handler.handleContentEnd(eventNode.get("contentEnd"));
+    void handleJsonResponse(byte[] payload, int offset, int length) {
+        NovaS2SEventHandler handler = this.handler;
+        if (handler == null) {
+            log.warn("Dropping response received before the session was bound: {}",
+                    new String(payload, offset, length, StandardCharsets.UTF_8));
+            return;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("event".equals(field) && value == JsonToken.START_OBJECT) {
+                    if (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String eventType = parser.currentName();
+                        parser.nextToken();
+                        dispatchEvent(eventType, parser, handler);
                     }
-                } else if (eventNode.has("completionEnd")) {
-                    handler.handleCompletionEnd(eventNode.get("completionEnd"));
-                } else {
-                    log.info("Unhandled event: {}", eventNode);
+                    return;
                 }
+                parser.skipChildren();
             }
         } catch (Exception e) {
             log.error("Error processing message", e);
             handler.onError(e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Dispatches a single event to the handler.
+     * @param eventType The event type, e.g. audioOutput
+     * @param parser The parser, positioned at the start of the event body
+     * @param handler The handler
+     */
+    private void dispatchEvent(String eventType, JsonParser parser, NovaS2SEventHandler handler) throws IOException {
+        if ("audioOutput".equals(eventType)) {
+            handleAudioOutput(parser, handler);
+            return;
+        }
+        JsonNode node = objectMapper.readTree(parser);
+        switch (eventType) {
+            case "completionStart":
+                handler.handleCompletionStart(node);
+                break;
+            case "contentStart":
+                handler.handleContentStart(node);
+                break;
+            case "textOutput":
+                if (isInterruptionText(node)) {
+                    handler.handleInterruption(null);
+                }
+                handler.handleTextOutput(node);
+                break;
+            case "toolUse":
+                toolUseId = node.get("toolUseId").asText();
+                toolName = node.get("toolName").asText();
+                toolUseContent = node.get("content").asText();
+                break;
+            case "contentEnd":
+                if (TYPE_TOOL.equals(node.get("type").asText())) {
+                    ObjectNode eventNode = objectMapper.createObjectNode();
+                    eventNode.set("contentEnd", node);
+                    handler.handleToolUse(eventNode, toolUseId, toolName, toolUseContent);
+                } else {
+                    if (STOP_REASON_INTERRUPTED.equals(node.path("stopReason").asText())
+                            && TYPE_AUDIO.equals(node.path("type").asText(TYPE_AUDIO))) {
+                        handler.handleInterruption(node.has("contentId") ? node.get("contentId").asText() : null);
+                    }
+                    handler.handleContentEnd(node);
+                }
+                break;
+            case "completionEnd":
+                handler.handleCompletionEnd(node);
+                break;
+            default:
+                log.info("Unhandled event: {} {}", eventType, node);
+        }
+    }
+
+    /**
+     * Streams an audioOutput event, decoding the base64 PCM content directly into μ-law.
+     * @param parser The parser, positioned at the start of the audioOutput object
+     * @param handler The handler
+     */
+    private void handleAudioOutput(JsonParser parser, NovaS2SEventHandler handler) throws IOException {
+        String contentId = null;
+        String role = null;
+        audioBuffer.reset();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "content":
+                    parser.readBinaryValue(Base64Variants.getDefaultVariant(), audioBuffer);
+                    break;
+                case "contentId":
+                    contentId = parser.getText();
+                    break;
+                case "role":
+                    role = parser.getText();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        Consumer<String> listener = audioOutputListener;
+        if (listener != null) {
+            listener.accept(contentId);
+        }
+        handler.handleAudioOutput(contentId, role, audioBuffer.getBuffer(), 0, audioBuffer.getLength());
+    }
+
+    /**
+     * Nova signals a barge-in with a textOutput whose content is {"interrupted": true}.
+     * @param textOutput The textOutput node
+     * @return true if the text output is an interruption marker
+     */
+    private boolean isInterruptionText(JsonNode textOutput) {
+        JsonNode content = textOutput.get("content");
+        if (content == null) {
+            return false;
+        }
+        String text = content.asText();
+        if (!text.contains("interrupted")) {
+            return false;
+        }
+        try {
+            return objectMapper.readTree(text).path("interrupted").asBoolean(false);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
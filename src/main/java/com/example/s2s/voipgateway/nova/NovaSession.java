@@ -0,0 +1,238 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.nova.event.*;
+import com.example.s2s.voipgateway.nova.observer.InputEventsInteractObserver;
+import com.example.s2s.voipgateway.nova.observer.InteractObserver;
+import com.example.s2s.voipgateway.nova.observer.OutboundEventPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * An open Nova Sonic bidirectional stream that has already sent its sessionStart event.
+ *
+ * A session is bound to exactly one call: binding sends the promptStart event and the system prompt and attaches
+ * the call's event handler to the response stream.
+ */
+public class NovaSession {
+    private static final Logger log = LoggerFactory.getLogger(NovaSession.class);
+    private final InputEventsInteractObserver inputObserver;
+    private final OutboundEventPublisher<?> publisher;
+    private final NovaS2SResponseHandler responseHandler;
+    private final CompletableFuture<Void> completion;
+    private final long createdAtMillis = System.currentTimeMillis();
+    private final AtomicBoolean bound = new AtomicBoolean(false);
+    private volatile long lastUserVoiceNanos;
+    private volatile boolean awaitingResponse = false;
+    private String responseContentId; // response stream thread only
+    private final CompletableFuture<Void> established = new CompletableFuture<>();
+    private Throwable setupFailure;
+    private Consumer<Throwable> setupFailureListener;
+
+    NovaSession(InputEventsInteractObserver inputObserver, OutboundEventPublisher<?> publisher,
+                NovaS2SResponseHandler responseHandler, CompletableFuture<Void> completion) {
+        this.inputObserver = inputObserver;
+        this.publisher = publisher;
+        this.responseHandler = responseHandler;
+        this.completion = completion;
+        responseHandler.getEstablished().whenComplete((result, error) -> {
+            if (error == null) {
+                established.complete(null);
+            } else {
+                setupFailed(error);
+            }
+        });
+        completion.whenComplete((result, error) ->
+                setupFailed(error != null ? error : new IllegalStateException("Nova stream ended during setup")));
+    }
+
+    /**
+     * Binds this session to a call.
+     * @param promptStartEvent The PromptStartEvent
+     * @param systemPrompt The system prompt
+     * @param eventHandler The event handler for the call.
+     * @return An observer for outbound events.
+     */
+    public InteractObserver<NovaSonicEvent> bind(PromptStartEvent promptStartEvent, TextInputEvent systemPrompt,
+                                                 NovaS2SEventHandler eventHandler) {
+        if (!bound.compareAndSet(false, true)) {
+            throw new IllegalStateException("Nova session is already bound to a call");
+        }
+        responseHandler.bind(eventHandler);
+
+        log.info("Sending prompt start event ...");
+        inputObserver.onNext(promptStartEvent);
+
+        log.info("Sending system prompt ...");
+        inputObserver.onNext(ContentStartEvent.createTextContentStart(systemPrompt.getTextInput().getPromptName(),
+                systemPrompt.getTextInput().getContentName()));
+        inputObserver.onNext(systemPrompt);
+        inputObserver.onNext(ContentEndEvent.create(systemPrompt.getTextInput().getPromptName(),
+                systemPrompt.getTextInput().getContentName()));
+        publisher.endBootstrap();
+
+        log.info("Input observer ready");
+        return inputObserver;
+    }
+
+    /**
+     * Registers a callback that receives the response latency of each turn, in milliseconds: the time from the
+     * caller's last voiced frame to the first audioOutput of Nova's next response.  The greeting is played locally,
+     * so measuring from the start of the call would mostly measure how long the caller takes to speak.
+     * @param listener The callback.
+     */
+    public void onResponseLatency(LongConsumer listener) {
+        responseHandler.setAudioOutputListener(contentId -> {
+            if (contentId != null && contentId.equals(responseContentId)) {
+                return;
+            }
+            responseContentId = contentId;
+            if (awaitingResponse) {
+                awaitingResponse = false;
+                listener.accept(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUserVoiceNanos));
+            }
+        });
+    }
+
+    /**
+     * Records an inbound frame in which the caller is speaking, the end of the user's turn once they stop.
+     */
+    public void userVoice() {
+        lastUserVoiceNanos = System.nanoTime();
+        awaitingResponse = true;
+    }
+
+    /**
+     * Waits until Bedrock has accepted the stream, so a call is never bound to a stream that is failing (e.g.
+     * throttled) asynchronously.  A stream that is not accepted in time is aborted.
+     * @param timeoutMillis The maximum time to wait.
+     * @return true if the stream is established, false if it failed or timed out
+     */
+    public boolean awaitEstablished(long timeoutMillis) {
+        try {
+            established.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            setupFailed(new TimeoutException("Nova stream not established after " + timeoutMillis + " ms"));
+            abort();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns true once Bedrock has accepted the stream.
+     */
+    public boolean isEstablished() {
+        return established.isDone() && !established.isCompletedExceptionally();
+    }
+
+    /**
+     * Registers a callback that runs once Bedrock has accepted the stream.
+     * @param listener The callback.
+     */
+    public void onEstablished(Runnable listener) {
+        established.thenRun(listener);
+    }
+
+    /**
+     * Registers a callback that receives the error if the stream fails before it is established.  It runs before
+     * {@link #awaitEstablished} returns, so a router can take the failed target out of rotation before the retry.
+     * @param listener The callback.
+     */
+    public void onSetupFailure(Consumer<Throwable> listener) {
+        Throwable failure;
+        synchronized (this) {
+            setupFailureListener = listener;
+            failure = setupFailure;
+        }
+        if (failure != null) {
+            listener.accept(failure);
+        }
+    }
+
+    private void setupFailed(Throwable error) {
+        Consumer<Throwable> listener;
+        synchronized (this) {
+            if (established.isDone() || setupFailure != null) {
+                return;
+            }
+            setupFailure = error;
+            listener = setupFailureListener;
+        }
+        if (listener != null) {
+            listener.accept(error);
+        }
+        established.completeExceptionally(error);
+    }
+
+    /**
+     * Returns true until the underlying stream completes or fails.
+     */
+    public boolean isOpen() {
+        return !completion.isDone();
+    }
+
+    /**
+     * Returns true once the session has been handed to a call.
+     */
+    public boolean isBound() {
+        return bound.get();
+    }
+
+    /**
+     * Returns the time since the stream was opened.
+     */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - createdAtMillis;
+    }
+
+    /**
+     * Returns the number of outbound events waiting for the stream to request them.
+     */
+    public int getOutboundQueueDepth() {
+        return publisher.getQueueDepth();
+    }
+
+    /**
+     * Returns the number of outbound events dropped because the queue was full.
+     */
+    public long getOutboundDroppedCount() {
+        return publisher.getDroppedCount();
+    }
+
+    /**
+     * Future that completes when the underlying stream ends.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Cancels the underlying stream, for a call whose stream does not close by itself.
+     */
+    public void abort() {
+        bound.set(true);
+        completion.cancel(true);
+    }
+
+    /**
+     * Ends an unbound session.  Bound sessions are closed by their call.
+     */
+    public void close() {
+        if (bound.compareAndSet(false, true) && inputObserver.isActive()) {
+            inputObserver.onComplete();
+        }
+    }
+}
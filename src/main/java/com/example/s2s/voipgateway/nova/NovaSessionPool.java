@@ -0,0 +1,182 @@
+package com.example.s2s.voipgateway.nova;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Pool of pre-opened, idle Nova Sonic sessions per tenant.
+ *
+ * Idle sessions have already sent sessionStart, so a new call only has to send promptStart and the system prompt.
+ * The pool is refilled in the background, evicts sessions that have been idle longer than the configured maximum
+ * and never opens a session that would push the number of open streams past the session quota.
+ */
+public class NovaSessionPool {
+    private static final Logger log = LoggerFactory.getLogger(NovaSessionPool.class);
+    private static final long REFILL_INTERVAL_MILLIS = 1000;
+    private final Function<String, NovaSession> opener;
+    private final int targetSize;
+    private final long maxIdleMillis;
+    private final int sessionQuota;
+    private final Map<String, Deque<NovaSession>> idleSessions = new ConcurrentHashMap<>();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new pool.
+     * @param targetSize Idle sessions to keep per tenant, 0 disables pre-warming.
+     * @param maxIdleMillis Maximum time an idle session is kept before it is closed.
+     * @param sessionQuota Maximum number of open streams (idle and in use) for this process.
+     * @param opener Opens a new session for a tenant.
+     */
+    public NovaSessionPool(int targetSize, long maxIdleMillis, int sessionQuota, Function<String, NovaSession> opener) {
+        this.targetSize = targetSize;
+        this.maxIdleMillis = maxIdleMillis;
+        this.sessionQuota = sessionQuota;
+        this.opener = opener;
+        if (targetSize > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "nova-session-pool");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::refill, REFILL_INTERVAL_MILLIS, REFILL_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            log.info("Nova session pool enabled: {} idle session(s) per tenant, max idle {} ms, quota {}",
+                    targetSize, maxIdleMillis, sessionQuota);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Creates a pool configured from NOVA_SESSION_POOL_SIZE, NOVA_SESSION_POOL_MAX_IDLE_MS and NOVA_SESSION_QUOTA.
+     * @param opener Opens a new session for a tenant.
+     * @return The pool
+     */
+    public static NovaSessionPool fromEnvironment(Function<String, NovaSession> opener) {
+        Map<String, String> environ = System.getenv();
+        return new NovaSessionPool(
+                Integer.parseInt(environ.getOrDefault("NOVA_SESSION_POOL_SIZE", "0")),
+                Long.parseLong(environ.getOrDefault("NOVA_SESSION_POOL_MAX_IDLE_MS", "45000")),
+                Integer.parseInt(environ.getOrDefault("NOVA_SESSION_QUOTA", "20")),
+                opener);
+    }
+
+    /**
+     * Registers a tenant and starts filling its idle sessions.
+     * @param tenant The tenant id.
+     */
+    public void prewarm(String tenant) {
+        if (scheduler == null) {
+            return;
+        }
+        idleSessions.computeIfAbsent(tenant, t -> new ConcurrentLinkedDeque<>());
+        scheduler.execute(this::refill);
+    }
+
+    /**
+     * Takes an idle session for the tenant, or opens a new one if none is available.
+     * @param tenant The tenant id.
+     * @return A session that has not been bound to a call.
+     */
+    public NovaSession acquire(String tenant) {
+        if (scheduler != null) {
+            Deque<NovaSession> idle = idleSessions.computeIfAbsent(tenant, t -> new ConcurrentLinkedDeque<>());
+            NovaSession session;
+            while ((session = idle.pollFirst()) != null) {
+                if (session.isOpen() && session.getAgeMillis() < maxIdleMillis) {
+                    log.info("Using pre-warmed Nova session for tenant {} (idle {} ms)", tenant, session.getAgeMillis());
+                    scheduler.execute(this::refill);
+                    return session;
+                }
+                session.close();
+            }
+            log.info("No pre-warmed Nova session available for tenant {}, opening a new one", tenant);
+            scheduler.execute(this::refill);
+        }
+        return open(tenant);
+    }
+
+    /**
+     * Returns the number of open streams, idle and in use.
+     */
+    public int getOpenSessionCount() {
+        return openSessions.get();
+    }
+
+    /**
+     * Returns the number of idle sessions across all tenants.
+     */
+    public int getIdleSessionCount() {
+        int count = 0;
+        for (Deque<NovaSession> idle : idleSessions.values()) {
+            count += idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stops refilling and closes all idle sessions.
+     */
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Deque<NovaSession> idle : idleSessions.values()) {
+            NovaSession session;
+            while ((session = idle.pollFirst()) != null) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Evicts expired or closed idle sessions and tops each tenant up to the target size.
+     */
+    private void refill() {
+        for (Map.Entry<String, Deque<NovaSession>> entry : idleSessions.entrySet()) {
+            Deque<NovaSession> idle = entry.getValue();
+            for (Iterator<NovaSession> it = idle.iterator(); it.hasNext(); ) {
+                NovaSession session = it.next();
+                if (!session.isOpen() || session.getAgeMillis() >= maxIdleMillis) {
+                    it.remove();
+                    session.close();
+                    log.debug("Evicted idle Nova session for tenant {}", entry.getKey());
+                }
+            }
+            while (idle.size() < targetSize) {
+                if (openSessions.get() >= sessionQuota) {
+                    log.debug("Session quota of {} reached, not pre-warming for tenant {}", sessionQuota, entry.getKey());
+                    return;
+                }
+                try {
+                    idle.addLast(open(entry.getKey()));
+                } catch (RuntimeException e) {
+                    log.warn("Failed to pre-warm Nova session for tenant {}", entry.getKey(), e);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a session and tracks it until its stream ends.
+     */
+    private NovaSession open(String tenant) {
+        NovaSession session = opener.apply(tenant);
+        openSessions.incrementAndGet();
+        session.getCompletion().whenComplete((result, error) -> openSessions.decrementAndGet());
+        return session;
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.s2s.voipgateway.nova;
+
+import com.example.s2s.voipgateway.nova.event.SessionStartEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.model.ServiceUnavailableException;
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes new Nova Sonic sessions across a list of region/endpoint targets.
+ *
+ * Each target has its own session cap.  A session is opened on the target with the best score, which combines the
+ * target's rolling response latency with its current load and the streams that failed on it since its last good one.
+ * If opening the stream fails the next target is tried.  A target that throttles or is unavailable, including
+ * asynchronously before its stream is established, is skipped for a cooldown period, unless it is the last target
+ * left: a single region keeps taking calls rather than failing all of them until the cooldown ends.
+ */
+public class NovaSessionRouter {
+    private static final Logger log = LoggerFactory.getLogger(NovaSessionRouter.class);
+    private static final String DEFAULT_MODEL_ID = "amazon.nova-sonic-v1:0";
+    private static final double DEFAULT_RESPONSE_LATENCY_MILLIS = 1000;
+    private static final double EWMA_WEIGHT = 0.2;
+    private final List<Target> targets;
+    private final long cooldownMillis;
+
+    /**
+     * A region or endpoint that sessions can be opened on.
+     */
+    public static class Target {
+        private final Region region;
+        private final URI endpoint;
+        private final String modelId;
+        private final int maxSessions;
+        private final AtomicInteger openSessions = new AtomicInteger();
+        private final AtomicInteger setupFailures = new AtomicInteger(); // since the last established stream
+        private volatile double responseLatencyMillis = -1;
+        private volatile long cooldownUntilMillis = 0;
+
+        public Target(Region region, URI endpoint, String modelId, int maxSessions) {
+            this.region = region;
+            this.endpoint = endpoint;
+            this.modelId = modelId;
+            this.maxSessions = maxSessions;
+        }
+
+        public Region getRegion() {
+            return region;
+        }
+
+        public URI getEndpoint() {
+            return endpoint;
+        }
+
+        public int getMaxSessions() {
+            return maxSessions;
+        }
+
+        public int getOpenSessions() {
+            return openSessions.get();
+        }
+
+        /**
+         * Returns the rolling response latency, from the end of the caller's turn to Nova's first audio, or -1 if no
+         * turn has been measured yet.
+         */
+        public double getResponseLatencyMillis() {
+            return responseLatencyMillis;
+        }
+
+        boolean isCoolingDown() {
+            return System.currentTimeMillis() < cooldownUntilMillis;
+        }
+
+        /**
+         * Lower is better: the expected response latency, inflated by the fraction of slots in use and by recent
+         * setup failures, so a retry prefers another target without taking this one out of rotation.
+         */
+        double score() {
+            double latency = responseLatencyMillis < 0 ? DEFAULT_RESPONSE_LATENCY_MILLIS : responseLatencyMillis;
+            return latency * (1.0 + (double) openSessions.get() / maxSessions) * (1 + setupFailures.get());
+        }
+
+        boolean tryReserve() {
+            int current;
+            do {
+                current = openSessions.get();
+                if (current >= maxSessions) {
+                    return false;
+                }
+            } while (!openSessions.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            openSessions.decrementAndGet();
+        }
+
+        synchronized void recordResponseLatency(long millis) {
+            responseLatencyMillis = responseLatencyMillis < 0
+                    ? millis
+                    : responseLatencyMillis + EWMA_WEIGHT * (millis - responseLatencyMillis);
+        }
+
+        @Override
+        public String toString() {
+            return endpoint != null ? region.id() + "@" + endpoint : region.id();
+        }
+    }
+
+    public NovaSessionRouter(List<Target> targets, long cooldownMillis) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one Nova Sonic target is required");
+        }
+        this.targets = Collections.unmodifiableList(new ArrayList<>(targets));
+        this.cooldownMillis = cooldownMillis;
+        log.info("Nova session targets: {}", this.targets);
+    }
+
+    /**
+     * Creates a router configured from the environment.
+     *
+     * NOVA_TARGETS is a comma separated list of region[:maxSessions][@endpoint], e.g.
+     * "us-east-1:20,us-west-2:20" or "us-east-1:200@http://localhost:8080".  Without it a single target is built
+     * from NOVA_REGION, NOVA_SESSION_QUOTA and NOVA_ENDPOINT.  NOVA_MODEL_ID and NOVA_TARGET_COOLDOWN_MS apply to
+     * every target.
+     * @return The router
+     */
+    public static NovaSessionRouter fromEnvironment() {
+        Map<String, String> environ = System.getenv();
+        String modelId = environ.getOrDefault("NOVA_MODEL_ID", DEFAULT_MODEL_ID);
+        int defaultMaxSessions = Integer.parseInt(environ.getOrDefault("NOVA_SESSION_QUOTA", "20"));
+        String spec = environ.get("NOVA_TARGETS");
+        if (spec == null || spec.trim().isEmpty()) {
+            spec = environ.getOrDefault("NOVA_REGION", "us-east-1");
+            String endpoint = environ.get("NOVA_ENDPOINT");
+            if (endpoint != null && !endpoint.isEmpty()) {
+                spec = spec + "@" + endpoint;
+            }
+        }
+        return new NovaSessionRouter(parseTargets(spec, modelId, defaultMaxSessions),
+                Long.parseLong(environ.getOrDefault("NOVA_TARGET_COOLDOWN_MS", "30000")));
+    }
+
+    /**
+     * Parses a target list in the NOVA_TARGETS format.
+     * @param spec The target list.
+     * @param modelId The model id for every target.
+     * @param defaultMaxSessions The session cap for targets that do not specify one.
+     * @return The targets
+     */
+    static List<Target> parseTargets(String spec, String modelId, int defaultMaxSessions) {
+        List<Target> targets = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            URI endpoint = null;
+            int at = entry.indexOf('@');
+            if (at >= 0) {
+                endpoint = URI.create(entry.substring(at + 1).trim());
+                entry = entry.substring(0, at).trim();
+            }
+            int maxSessions = defaultMaxSessions;
+            int colon = entry.indexOf(':');
+            if (colon >= 0) {
+                maxSessions = Integer.parseInt(entry.substring(colon + 1).trim());
+                entry = entry.substring(0, colon).trim();
+            }
+            targets.add(new Target(Region.of(entry), endpoint, modelId, maxSessions));
+        }
+        return targets;
+    }
+
+    /**
+     * Opens a session on the best available target, failing over to the next one if the stream cannot be set up.
+     * @param sessionStartEvent The SessionStartEvent
+     * @return The open session.
+     * @throws IllegalStateException If no target has a free slot or all of them failed.
+     */
+    public NovaSession openSession(SessionStartEvent sessionStartEvent) {
+        List<Target> candidates = new ArrayList<>();
+        for (Target target : targets) {
+            if (!target.isCoolingDown() && target.getOpenSessions() < target.getMaxSessions()) {
+                candidates.add(target);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(Target::score));
+
+        RuntimeException lastFailure = null;
+        for (Target target : candidates) {
+            if (!target.tryReserve()) {
+                continue;
+            }
+            try {
+                NovaSession session = new NovaS2SBedrockInteractClient(
+                        BedrockClientRegistry.getInstance().getClient(target.region, target.endpoint),
+                        target.modelId).openSession(sessionStartEvent);
+                track(target, session);
+                log.info("Opened Nova session on {} ({}/{} sessions)", target, target.getOpenSessions(),
+                        target.getMaxSessions());
+                return session;
+            } catch (RuntimeException e) {
+                target.release();
+                setupFailed(target, e);
+                lastFailure = e;
+            }
+        }
+        throw new IllegalStateException("No Nova Sonic target available (" + describe() + ")", lastFailure);
+    }
+
+    /**
+     * Returns the configured targets.
+     */
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Returns a one-line summary of every target's load and latency.
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Target target : targets) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(target).append(' ').append(target.getOpenSessions()).append('/').append(target.getMaxSessions())
+                    .append(" latency=").append(Math.round(target.getResponseLatencyMillis())).append("ms");
+            if (target.isCoolingDown()) {
+                sb.append(" cooling down");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Releases the target's slot when the stream ends and feeds back latency and throttling.
+     */
+    private void track(Target target, NovaSession session) {
+        session.onResponseLatency(target::recordResponseLatency);
+        session.onEstablished(() -> target.setupFailures.set(0));
+        session.onSetupFailure(error -> setupFailed(target, error));
+        session.getCompletion().whenComplete((result, error) -> {
+            target.release();
+            if (error != null && session.isEstablished() && isThrottling(error)) {
+                coolDown(target, error);
+            }
+        });
+    }
+
+    /**
+     * Lowers the score of a target whose stream failed before it was established, and cools it down if it throttled.
+     * Timeouts and other errors do not cool it down: they may be transient, and the score already steers the retry.
+     */
+    private void setupFailed(Target target, Throwable error) {
+        target.setupFailures.incrementAndGet();
+        if (isThrottling(error)) {
+            coolDown(target, error);
+        } else {
+            log.warn("Nova target {} failed during setup: {}", target, error.toString());
+        }
+    }
+
+    /**
+     * Skips a target for the cooldown period, unless every other target is cooling down already.
+     */
+    private synchronized void coolDown(Target target, Throwable cause) {
+        boolean otherUsable = false;
+        for (Target other : targets) {
+            if (other != target && !other.isCoolingDown()) {
+                otherUsable = true;
+                break;
+            }
+        }
+        if (!otherUsable) {
+            log.warn("Nova target {} failed but is the last one available, not cooling it down: {}", target,
+                    cause.toString());
+            return;
+        }
+        target.cooldownUntilMillis = System.currentTimeMillis() + cooldownMillis;
+        log.warn("Nova target {} failed, skipping it for {} ms: {}", target, cooldownMillis, cause.toString());
+    }
+
+    private static boolean isThrottling(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ThrottlingException || t instanceof ServiceUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
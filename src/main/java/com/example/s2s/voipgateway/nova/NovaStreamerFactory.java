@@ -5,11 +5,12 @@ import com.example.s2s.voipgateway.constants.SonicAudioConfig;
 import com.example.s2s.voipgateway.constants.SonicAudioTypes;
 import com.example.s2s.voipgateway.nova.event.*;
 import com.example.s2s.voipgateway.nova.context.HybridEventHandler;
-import com.example.s2s.voipgateway.nova.context.VariableReplacer;
+import com.example.s2s.voipgateway.nova.context.PromptTemplate;
 import com.example.s2s.voipgateway.NovaMediaConfig;
 import com.example.s2s.voipgateway.tracing.CallTracer;
 import com.example.s2s.voipgateway.NovaSonicAudioInput;
 import com.example.s2s.voipgateway.NovaSonicAudioOutput;
+import com.example.s2s.voipgateway.nova.io.AudioAssetCache;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
 import org.mjsip.media.AudioStreamer;
 import org.mjsip.media.FlowSpec;
@@ -20,14 +21,7 @@ import org.mjsip.media.tx.AudioTransmitter;
 import org.mjsip.ua.streamer.StreamerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.http.Protocol;
-import software.amazon.awssdk.http.ProtocolNegotiation;
-import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
-
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+
 import java.util.*;
 import java.util.concurrent.Executor;
 
@@ -37,12 +31,48 @@ import java.util.concurrent.Executor;
 public class NovaStreamerFactory implements StreamerFactory {
     private static final Logger log = LoggerFactory.getLogger(NovaStreamerFactory.class);
     private static final String ROLE_SYSTEM = "SYSTEM";
+    private static final String DEFAULT_TENANT = System.getenv().getOrDefault("CLIENT_ID", "keralty");
+    private static final String GOODBYE_FILENAME = System.getenv().getOrDefault("GOODBYE_FILENAME", "goodbye.wav");
+    private static final long SESSION_SETUP_TIMEOUT_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("NOVA_SESSION_SETUP_TIMEOUT_MS", "5000"));
+    // takes the caller's audio of a call that has no Nova session
+    private static final InteractObserver<NovaSonicEvent> DISCARD_OBSERVER = new InteractObserver<NovaSonicEvent>() {
+        @Override
+        public void onNext(NovaSonicEvent msg) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public void onError(Exception error) {
+        }
+    };
     private final NovaMediaConfig mediaConfig;
+    private final NovaSessionRouter router;
+    private final NovaSessionPool sessionPool;
+    private final PromptTemplate promptTemplate;
     private CallTracer tracer; // null-safe: can be null if not set
+    private Runnable hangup; // null-safe: can be null if not set
+    private CallActivity activity; // null-safe: can be null if not set
 
     public NovaStreamerFactory(NovaMediaConfig mediaConfig) {
         this.mediaConfig = mediaConfig;
         this.tracer = null;
+        this.promptTemplate = PromptTemplate.compile(mediaConfig.getNovaPrompt());
+        this.router = NovaSessionRouter.fromEnvironment();
+        this.sessionPool = NovaSessionPool.fromEnvironment(tenant -> router.openSession(createSessionStartEvent()));
+        this.sessionPool.prewarm(DEFAULT_TENANT);
+        AudioAssetCache.getInstance().preload(DEFAULT_TENANT,
+                System.getenv().getOrDefault("GREETING_FILENAME", "hello-how.wav"), "error.wav", GOODBYE_FILENAME);
+    }
+
+    private NovaStreamerFactory(NovaStreamerFactory other) {
+        this.mediaConfig = other.mediaConfig;
+        this.router = other.router;
+        this.sessionPool = other.sessionPool;
+        this.promptTemplate = other.promptTemplate;
     }
 
     /**
@@ -53,53 +83,136 @@ public class NovaStreamerFactory implements StreamerFactory {
      * @return A new StreamerFactory instance with the tracer attached
      */
     public StreamerFactory withTracer(CallTracer tracer) {
-        NovaStreamerFactory copy = new NovaStreamerFactory(this.mediaConfig);
+        return withTracer(tracer, null);
+    }
+
+    /**
+     * Creates a copy of this factory with the specified tracer and hangup action attached.
+     *
+     * @param tracer The call tracer for this specific call
+     * @param hangup Hangs up the call, used when the conversation ends from the Nova side
+     * @return A new StreamerFactory instance with the tracer and hangup action attached
+     */
+    public StreamerFactory withTracer(CallTracer tracer, Runnable hangup) {
+        return withTracer(tracer, hangup, null);
+    }
+
+    /**
+     * Creates a copy of this factory with the specified tracer, hangup action and activity clock attached.
+     *
+     * @param tracer The call tracer for this specific call
+     * @param hangup Hangs up the call, used when the conversation ends from the Nova side
+     * @param activity The call's activity clock, watched by the call reaper
+     * @return A new StreamerFactory instance with the tracer, hangup action and activity clock attached
+     */
+    public StreamerFactory withTracer(CallTracer tracer, Runnable hangup, CallActivity activity) {
+        NovaStreamerFactory copy = new NovaStreamerFactory(this);
         copy.tracer = tracer;
+        copy.hangup = hangup;
+        copy.activity = activity;
         return copy;
     }
 
     @Override
     public MediaStreamer createMediaStreamer(Executor executor, FlowSpec flowSpec) {
         log.info("Creating Nova streamer ...");
-        NettyNioAsyncHttpClient.Builder nettyBuilder = NettyNioAsyncHttpClient.builder()
-                .readTimeout(Duration.of(180, ChronoUnit.SECONDS))
-                .maxConcurrency(20)
-                .protocol(Protocol.HTTP2)
-                .protocolNegotiation(ProtocolNegotiation.ALPN);
-
-        BedrockRuntimeAsyncClient client = BedrockRuntimeAsyncClient.builder()
-                .region(Region.US_EAST_1)
-                .httpClientBuilder(nettyBuilder)
-                .build();
+        long startTime = System.currentTimeMillis();
+        String tenant = tracer != null && tracer.getVariable("client_id") != null
+                ? tracer.getVariable("client_id") : DEFAULT_TENANT;
+        NovaSession session;
+        try {
+            session = acquireSession(tenant);
+        } catch (IllegalStateException e) {
+            return createErrorStreamer(executor, flowSpec, e);
+        }
 
         String promptName = UUID.randomUUID().toString();
 
-        NovaS2SBedrockInteractClient novaClient = new NovaS2SBedrockInteractClient(client, "amazon.nova-sonic-v1:0");
         NovaS2SEventHandler eventHandler = new HybridEventHandler(tracer);
 
         // Replace variables in base prompt before sending to Nova Sonic
-        String basePrompt = mediaConfig.getNovaPrompt();
-        String promptWithVariables = VariableReplacer.replaceVariables(basePrompt, tracer);
+        String promptWithVariables = promptTemplate.render(tracer);
 
         log.info("Using system prompt ({} chars)", promptWithVariables.length());
 
-        InteractObserver<NovaSonicEvent> inputObserver = novaClient.interactMultimodal(
-                createSessionStartEvent(),
+        InteractObserver<NovaSonicEvent> inputObserver = session.bind(
                 createPromptStartEvent(promptName, eventHandler),
                 createSystemPrompt(promptName, promptWithVariables),
                 eventHandler);
+        log.info("Nova session bound in {} ms", System.currentTimeMillis() - startTime);
 
         eventHandler.setOutbound(inputObserver);
+        if (hangup != null) {
+            eventHandler.setHangupAction(hangup);
+        }
+        CallActivity callActivity = activity;
+        if (callActivity != null) {
+            eventHandler.setCallActivity(callActivity);
+            callActivity.streamOpened(() -> {
+                log.warn("Aborting Nova stream that did not close with its call");
+                session.abort();
+                eventHandler.onError(new IllegalStateException("Nova stream aborted after the call ended"));
+            });
+            session.getCompletion().whenComplete((result, error) -> callActivity.streamClosed());
+        }
         AudioTransmitter tx = new NovaSonicAudioInput(eventHandler);
-        AudioReceiver rx = new NovaSonicAudioOutput(inputObserver, promptName);
+        // the caller's voice marks the end of their turn for the router's response latency, and keeps the call alive
+        AudioReceiver rx = new NovaSonicAudioOutput(inputObserver, promptName, () -> {
+            session.userVoice();
+            if (callActivity != null) {
+                callActivity.inboundVoice();
+            }
+        }, executor);
+
+        log.debug("Created AudioStreamer");
+        return new AudioStreamer(executor, flowSpec, tx, rx, createStreamerOptions());
+    }
 
-        StreamerOptions options = StreamerOptions.builder()
+    /**
+     * Creates the streamer of a call that did not get a Nova session: it plays the error prompt, discards the
+     * caller's audio and hangs up once the prompt has played.
+     */
+    private MediaStreamer createErrorStreamer(Executor executor, FlowSpec flowSpec, IllegalStateException error) {
+        HybridEventHandler eventHandler = new HybridEventHandler(tracer);
+        if (hangup != null) {
+            eventHandler.setHangupAction(hangup);
+        }
+        if (activity != null) {
+            eventHandler.setCallActivity(activity);
+        }
+        eventHandler.failCall(error);
+        AudioTransmitter tx = new NovaSonicAudioInput(eventHandler);
+        AudioReceiver rx = new NovaSonicAudioOutput(DISCARD_OBSERVER, null, null, executor);
+        return new AudioStreamer(executor, flowSpec, tx, rx, createStreamerOptions());
+    }
+
+    private StreamerOptions createStreamerOptions() {
+        return StreamerOptions.builder()
                 .setRandomEarlyDrop(mediaConfig.getRandomEarlyDropRate())
                 .setSymmetricRtp(mediaConfig.isSymmetricRtp())
                 .build();
+    }
 
-        log.debug("Created AudioStreamer");
-        return new AudioStreamer(executor, flowSpec, tx, rx, options);
+    /**
+     * Acquires a session and waits for Bedrock to accept its stream before it is bound to the call.  If the stream
+     * fails or times out during setup (e.g. the region throttled it), the router has already lowered that target's
+     * score or put it in cooldown, so the next attempt prefers another target.
+     * @param tenant The tenant id.
+     * @return An established session.
+     * @throws IllegalStateException If no target is available or every attempt failed during setup.
+     */
+    private NovaSession acquireSession(String tenant) {
+        int attempts = router.getTargets().size();
+        for (int attempt = 1; ; attempt++) {
+            NovaSession session = sessionPool.acquire(tenant);
+            if (session.awaitEstablished(SESSION_SETUP_TIMEOUT_MILLIS)) {
+                return session;
+            }
+            if (attempt >= attempts) {
+                throw new IllegalStateException("Nova session failed during setup (" + router.describe() + ")");
+            }
+            log.warn("Nova session failed during setup, retrying ({})", router.describe());
+        }
     }
 
     /**
@@ -13,9 +13,9 @@ import java.io.File;
 import java.net.URL;
 import java.util.*;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Dynamic context loader that auto-discovers available contexts based on CLIENT_ID.
@@ -25,7 +25,7 @@ import java.util.Set;
  * "loadContext" that accepts a "context" parameter to load the requested fragment.
  *
  * Architecture:
- * - Fragments are loaded into memory at class initialization (static block)
+ * - Fragments are loaded into memory and compiled to {@link PromptTemplate}s at class initialization (static block)
  * - Content is NOT sent to Nova Sonic until the tool is explicitly invoked
  * - Supports multi-client deployment via CLIENT_ID environment variable
  *
@@ -43,10 +43,10 @@ import java.util.Set;
 public class DynamicContextLoaderEventHandler extends AbstractNovaS2SEventHandler {
 
     private static final String CLIENT_ID = System.getenv().getOrDefault("CLIENT_ID", "keralty");
-    private static final Map<String, String> CONTEXT_FRAGMENTS = new HashMap<>();
+    private static final Map<String, PromptTemplate> CONTEXT_FRAGMENTS = new HashMap<>();
     private static final List<String> AVAILABLE_CONTEXTS = new ArrayList<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final Set<String> loadedContexts = new HashSet<>(); // Cache per instance
+    private final Set<String> loadedContexts = ConcurrentHashMap.newKeySet(); // Cache per instance, tools run concurrently
 
     static {
         loadClientContexts();
@@ -104,7 +104,7 @@ public class DynamicContextLoaderEventHandler extends AbstractNovaS2SEventHandle
                 String content = PromptFragmentLoader.loadFragment(resourcePath);
 
                 if (!content.isEmpty()) {
-                    CONTEXT_FRAGMENTS.put(contextName, content);
+                    CONTEXT_FRAGMENTS.put(contextName, PromptTemplate.compile(content));
                     AVAILABLE_CONTEXTS.add(contextName);
                     log.info("✓ Loaded context '{}' for client '{}' ({} characters)",
                         contextName, CLIENT_ID, content.length());
@@ -155,9 +155,8 @@ public class DynamicContextLoaderEventHandler extends AbstractNovaS2SEventHandle
             }
 
             if (CONTEXT_FRAGMENTS.containsKey(contextName)) {
-                String instructions = CONTEXT_FRAGMENTS.get(contextName);
                 // Replace variable placeholders with actual values
-                instructions = VariableReplacer.replaceVariables(instructions, tracer);
+                String instructions = CONTEXT_FRAGMENTS.get(contextName).render(tracer);
                 output.put("contextLoaded", true);
                 output.put("contextType", contextName);
                 output.put("instructions", instructions);
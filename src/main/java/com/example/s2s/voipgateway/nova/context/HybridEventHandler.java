@@ -87,6 +87,9 @@ public class HybridEventHandler extends AbstractNovaS2SEventHandler {
             case "endCall":
                 log.info("Routing to EndCallEventHandler");
                 endCallHandler.handleToolInvocation(toolUseId, toolName, content, output);
+                if (endCallHandler.isCallEndRequested()) {
+                    requestHangup();
+                }
                 break;
 
             default:
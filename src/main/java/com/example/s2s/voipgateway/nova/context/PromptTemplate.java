@@ -0,0 +1,172 @@
+package com.example.s2s.voipgateway.nova.context;
+
+import com.example.s2s.voipgateway.tracing.CallTracer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A prompt parsed once into literal segments and variable placeholders, so rendering it for a call is a single pass
+ * over the segments into a builder of the exact size.
+ *
+ * Placeholders are written ${name} or [name], where the name is made of letters, digits, '_', '-' and '.', so
+ * bracketed prose such as [Nombre del titular] stays literal text.  A placeholder takes the value of the variable
+ * called name or, failing that, uui_name (decoded UUI data).  Placeholders without a non-empty value are left as
+ * written and reported as unresolved.  Values are inserted as is, never scanned for placeholders themselves.
+ * Immutable and thread safe.
+ */
+@Slf4j
+public final class PromptTemplate {
+    private static final String UUI_PREFIX = "uui_";
+    private final String source;
+    private final String[] literals; // one more than placeholders: literal, placeholder, literal, ...
+    private final String[] names;
+    private final String[] uuiNames;
+    private final String[] placeholders;
+    private final int literalLength;
+
+    private PromptTemplate(String source, List<String> literals, List<String> names, List<String> placeholders) {
+        this.source = source;
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.placeholders = placeholders.toArray(new String[0]);
+        this.uuiNames = new String[this.names.length];
+        for (int i = 0; i < this.names.length; i++) {
+            uuiNames[i] = UUI_PREFIX + this.names[i];
+        }
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses a prompt.
+     * @param source The prompt text with placeholders.
+     * @return The compiled template
+     */
+    public static PromptTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int length = source.length();
+        int literalStart = 0;
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            int nameStart;
+            char close;
+            if (c == '$' && i + 1 < length && source.charAt(i + 1) == '{') {
+                nameStart = i + 2;
+                close = '}';
+            } else if (c == '[') {
+                nameStart = i + 1;
+                close = ']';
+            } else {
+                i++;
+                continue;
+            }
+            int nameEnd = nameStart;
+            while (nameEnd < length && isNameChar(source.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if (nameEnd == nameStart || nameEnd == length || source.charAt(nameEnd) != close) {
+                i++;
+                continue;
+            }
+            literals.add(source.substring(literalStart, i));
+            names.add(source.substring(nameStart, nameEnd));
+            placeholders.add(source.substring(i, nameEnd + 1));
+            i = nameEnd + 1;
+            literalStart = i;
+        }
+        literals.add(source.substring(literalStart));
+        return new PromptTemplate(source, literals, names, placeholders);
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '-' || c == '.';
+    }
+
+    /**
+     * Renders the template with a call's variables, logging any placeholders left unresolved.
+     * @param tracer The call's tracer, holding the variables; if null the prompt is returned unchanged.
+     * @return The rendered prompt
+     */
+    public String render(CallTracer tracer) {
+        if (tracer == null) {
+            log.warn("CallTracer is null - cannot replace variables");
+            return source;
+        }
+        if (names.length == 0) {
+            return source;
+        }
+        List<String> unresolved = new ArrayList<>();
+        String rendered = render(tracer::getVariable, unresolved);
+        if (unresolved.isEmpty()) {
+            log.info("Prompt rendered: all {} placeholders replaced", names.length);
+        } else {
+            log.info("Prompt rendered: {} of {} placeholders replaced, unresolved: {}",
+                    names.length - unresolved.size(), names.length, new LinkedHashSet<>(unresolved));
+        }
+        return rendered;
+    }
+
+    /**
+     * Renders the template.
+     * @param variables Returns a variable's value, or null if it is not set.
+     * @param unresolved Receives each placeholder left unresolved, as written, may be null.
+     * @return The rendered prompt
+     */
+    public String render(Function<String, String> variables, Collection<String> unresolved) {
+        if (names.length == 0) {
+            return source;
+        }
+        String[] values = new String[names.length];
+        int length = literalLength;
+        for (int i = 0; i < names.length; i++) {
+            String value = resolve(variables, i);
+            if (value == null) {
+                value = placeholders[i];
+                if (unresolved != null) {
+                    unresolved.add(value);
+                }
+            }
+            values[i] = value;
+            length += value.length();
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < names.length; i++) {
+            sb.append(literals[i]).append(values[i]);
+        }
+        return sb.append(literals[names.length]).toString();
+    }
+
+    private String resolve(Function<String, String> variables, int index) {
+        String value = variables.apply(names[index]);
+        if (value == null || value.isEmpty()) {
+            value = variables.apply(uuiNames[index]);
+        }
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Returns the prompt text the template was compiled from.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the number of placeholders, counting repeats.
+     */
+    public int getPlaceholderCount() {
+        return names.length;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.s2s.voipgateway.nova.event;
+
+import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes audioInput events for one audio content stream from a precomputed JSON template.
+ *
+ * The JSON before and after the content value is rendered once by Jackson with the prompt and content names baked
+ * in; each frame only transcodes μ-law to PCM and base64-encodes it directly between the two.  Not thread safe.
+ */
+public class AudioInputEventTemplate {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String CONTENT_MARKER = "__AUDIO_CONTENT__";
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private byte[] pcm = new byte[320];
+
+    public AudioInputEventTemplate(String promptName, String contentName, String role) {
+        String json;
+        try {
+            json = OBJECT_MAPPER.writeValueAsString(new NovaSonicEventContainer(new AudioInputEvent(
+                    new AudioInputEvent.AudioInput(promptName, contentName, CONTENT_MARKER, role))));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to render audio input template", e);
+        }
+        int markerIndex = json.indexOf(CONTENT_MARKER);
+        prefix = json.substring(0, markerIndex).getBytes(StandardCharsets.UTF_8);
+        suffix = json.substring(markerIndex + CONTENT_MARKER.length()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders an audioInput event for a frame of μ-law audio.
+     * @param ulaw Buffer holding the μ-law audio
+     * @param offset Offset of the audio
+     * @param length Number of μ-law bytes
+     * @return The serialized event
+     */
+    public PreSerializedEvent render(byte[] ulaw, int offset, int length) {
+        int pcmLength = length * 2;
+        if (pcm.length < pcmLength) {
+            pcm = new byte[pcmLength];
+        }
+        UlawToPcmTranscoder.convert(ulaw, offset, length, pcm, 0);
+
+        int encodedLength = 4 * ((pcmLength + 2) / 3);
+        byte[] json = new byte[prefix.length + encodedLength + suffix.length];
+        System.arraycopy(prefix, 0, json, 0, prefix.length);
+        encodeBase64(pcm, pcmLength, json, prefix.length);
+        System.arraycopy(suffix, 0, json, prefix.length + encodedLength, suffix.length);
+        return new PreSerializedEvent(json);
+    }
+
+    /**
+     * Returns the PCM rendered by the last call to render(); valid for twice the μ-law length.
+     */
+    public byte[] getLastPcm() {
+        return pcm;
+    }
+
+    /**
+     * Standard base64 with padding, written at an offset of the destination.
+     */
+    private static void encodeBase64(byte[] src, int length, byte[] dst, int dstOffset) {
+        int d = dstOffset;
+        int fullGroups = length - length % 3;
+        for (int s = 0; s < fullGroups; s += 3) {
+            int bits = (src[s] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s + 2] & 0xFF);
+            dst[d++] = BASE64_ALPHABET[(bits >>> 18) & 0x3F];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 6) & 0x3F];
+            dst[d++] = BASE64_ALPHABET[bits & 0x3F];
+        }
+        int remaining = length - fullGroups;
+        if (remaining > 0) {
+            int bits = (src[fullGroups] & 0xFF) << 16;
+            if (remaining == 2) {
+                bits |= (src[fullGroups + 1] & 0xFF) << 8;
+            }
+            dst[d++] = BASE64_ALPHABET[(bits >>> 18) & 0x3F];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            dst[d++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3F] : (byte) '=';
+            dst[d] = (byte) '=';
+        }
+    }
+}
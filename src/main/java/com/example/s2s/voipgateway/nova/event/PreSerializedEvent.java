@@ -0,0 +1,17 @@
+package com.example.s2s.voipgateway.nova.event;
+
+/**
+ * An event that has already been serialized to its JSON wire form, including the outer "event" container.
+ * The bytes are handed to the SDK as-is and must not be modified afterwards.
+ */
+public class PreSerializedEvent implements NovaSonicEvent {
+    private final byte[] json;
+
+    public PreSerializedEvent(byte[] json) {
+        this.json = json;
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+}
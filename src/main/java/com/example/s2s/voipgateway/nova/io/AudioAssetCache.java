@@ -0,0 +1,215 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of prompt audio (greeting, error and filler files) decoded to 8 kHz μ-law.
+ *
+ * Each file is read, resampled and transcoded once and the bytes are shared by every call, so answering a call
+ * does no file I/O or decoding.  Lookups try a tenant and voice specific file first, then a tenant specific one,
+ * then the plain name:
+ * <pre>
+ *   audio/{tenant}/{voice}/{name}
+ *   audio/{tenant}/{name}
+ *   {name}
+ * </pre>
+ * Each candidate is looked for relative to the working directory and then on the classpath, like the audio files
+ * have always been.  Misses are cached too.  The directory of each candidate is watched, or its nearest existing
+ * ancestor if it does not exist yet, and a file or directory that is created, changed or deleted there evicts every
+ * cached asset beneath it, so a tenant or voice directory added later is picked up on the next lookup.
+ */
+public class AudioAssetCache {
+    private static final Logger log = LoggerFactory.getLogger(AudioAssetCache.class);
+    private static final AudioAssetCache INSTANCE = new AudioAssetCache();
+    private static final AudioFormat PCM_8K = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 8000, 16, 1, 2, 8000, false);
+    private static final byte[] MISSING = new byte[0];
+    private final String defaultVoice = System.getenv().getOrDefault("NOVA_VOICE_ID", "en_us_matthew");
+    private final Map<String, byte[]> assets = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private volatile WatchService watchService;
+
+    private AudioAssetCache() {
+    }
+
+    /**
+     * Retrieves the process-wide cache.
+     * @return The cache
+     */
+    public static AudioAssetCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Retrieves an audio asset for the configured voice.
+     * @param tenant The tenant (client id), may be null.
+     * @param name The file name, e.g. hello-how.wav.
+     * @return The μ-law audio, shared and not to be modified, or null if no candidate file exists.
+     */
+    public byte[] get(String tenant, String name) {
+        return get(tenant, defaultVoice, name);
+    }
+
+    /**
+     * Retrieves an audio asset.
+     * @param tenant The tenant (client id), may be null.
+     * @param voice The Nova voice id, may be null.
+     * @param name The file name, e.g. hello-how.wav.
+     * @return The μ-law audio, shared and not to be modified, or null if no candidate file exists.
+     */
+    public byte[] get(String tenant, String voice, String name) {
+        if (tenant != null && !tenant.isEmpty()) {
+            if (voice != null && !voice.isEmpty()) {
+                byte[] ulaw = load("audio/" + tenant + "/" + voice + "/" + name);
+                if (ulaw != null) {
+                    return ulaw;
+                }
+            }
+            byte[] ulaw = load("audio/" + tenant + "/" + name);
+            if (ulaw != null) {
+                return ulaw;
+            }
+        }
+        return load(name);
+    }
+
+    /**
+     * Loads assets ahead of the first call.
+     * @param tenant The tenant (client id), may be null.
+     * @param names The file names.
+     */
+    public void preload(String tenant, String... names) {
+        for (String name : names) {
+            byte[] ulaw = get(tenant, name);
+            if (ulaw != null) {
+                log.info("Preloaded audio {} for tenant {} ({} ms)", name, tenant, ulaw.length / 8);
+            }
+        }
+    }
+
+    private byte[] load(String path) {
+        byte[] ulaw = assets.computeIfAbsent(path, this::decode);
+        return ulaw == MISSING ? null : ulaw;
+    }
+
+    /**
+     * Reads and transcodes a candidate file, from the working directory or the classpath.
+     */
+    private byte[] decode(String path) {
+        File file = new File(path);
+        watch(existingAncestor(file.getAbsoluteFile().toPath().getParent()));
+        InputStream is = null;
+        try {
+            is = file.exists()
+                    ? new FileInputStream(file)
+                    : AudioAssetCache.class.getClassLoader().getResourceAsStream(path);
+            if (is == null) {
+                return MISSING;
+            }
+            try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(is));
+                 AudioInputStream pcm = AudioSystem.getAudioInputStream(PCM_8K, audioInputStream)) {
+                byte[] ulaw = PcmToULawTranscoder.transcodeBytes(pcm.readAllBytes());
+                log.debug("Loaded audio {} ({} bytes)", path, ulaw.length);
+                return ulaw;
+            }
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            log.error("Failed to load {}", path, e);
+            return MISSING;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    log.debug("Failed to close {}", path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the directory itself if it exists, else its nearest existing ancestor.
+     */
+    private static Path existingAncestor(Path directory) {
+        while (directory != null && !directory.toFile().isDirectory()) {
+            directory = directory.getParent();
+        }
+        return directory;
+    }
+
+    /**
+     * Starts watching a directory, if it exists and is not watched yet.
+     */
+    private void watch(Path directory) {
+        if (directory == null || !directory.toFile().isDirectory() || !watchedDirectories.add(directory)) {
+            return;
+        }
+        try {
+            directory.register(watchService(), StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            log.warn("Cannot watch {} for audio changes", directory, e);
+        }
+    }
+
+    private synchronized WatchService watchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread watcher = new Thread(this::processEvents, "audio-asset-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        return watchService;
+    }
+
+    /**
+     * Evicts cached assets, misses included, at or beneath a changed path; they are reloaded on the next lookup.
+     */
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        assets.clear();
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context());
+                    assets.keySet().removeIf(path -> {
+                        boolean match = new File(path).getAbsoluteFile().toPath().startsWith(changed);
+                        if (match) {
+                            log.info("Audio {} changed, reloading on next use", path);
+                        }
+                        return match;
+                    });
+                }
+                if (!key.reset()) {
+                    watchedDirectories.remove(directory);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Audio asset watcher stopped");
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
+import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Adaptive jitter buffer for inbound μ-law RTP payloads, keyed by RTP sequence number.
+ *
+ * The network side offers packets as they arrive, in any order; the playout side polls one frame per packet time.
+ * Playout starts once the buffer holds the target depth, which follows the RFC 3550 interarrival jitter estimate
+ * between the minimum and maximum delay.  Late and duplicate packets are dropped, a missing packet is concealed
+ * by repeating the previous frame with a fade, and after three concealed frames silence is played until audio
+ * arrives again.  When the buffer has grown well past the target a frame is discarded to bring the delay back
+ * down.  Thread safe.
+ */
+public class JitterBuffer {
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    private static final int SAMPLES_PER_MILLI = 8;
+    private static final int MAX_CONCEALED_FRAMES = 3;
+    private static final int EXCESS_FRAMES = 2;
+    private static final byte ULAW_SILENCE = (byte) 0xFF;
+    private final int minDelayMillis;
+    private final int maxDelayMillis;
+    private final byte[][] frames = new byte[CAPACITY][];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] sequences = new int[CAPACITY];
+    private byte[] lastFrame = new byte[0];
+    private int lastLength = 0;
+    private int frameSamples = 0;
+    private boolean started = false;
+    private boolean playing = false;
+    private int nextSequence;
+    private int highestSequence;
+    private int targetFrames = 1;
+    private int concealedRun = 0;
+    private boolean haveTransit = false;
+    private long lastTransit;
+    private double jitterSamples = 0;
+    private long receivedPackets = 0;
+    private long lostPackets = 0;
+    private long latePackets = 0;
+    private long duplicatePackets = 0;
+    private long concealedFrames = 0;
+    private long discardedFrames = 0;
+    private long underruns = 0;
+
+    /**
+     * Creates a new jitter buffer.
+     * @param minDelayMillis Minimum playout delay.
+     * @param maxDelayMillis Maximum playout delay.
+     */
+    public JitterBuffer(int minDelayMillis, int maxDelayMillis) {
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = Math.max(minDelayMillis, maxDelayMillis);
+        Arrays.fill(sequences, -1);
+    }
+
+    /**
+     * Creates a jitter buffer configured from JITTER_BUFFER_MIN_MS and JITTER_BUFFER_MAX_MS, or returns null unless
+     * JITTER_BUFFER_ENABLED is true.
+     * @return The jitter buffer, or null if disabled
+     */
+    public static JitterBuffer fromEnvironment() {
+        Map<String, String> environ = System.getenv();
+        if (!Boolean.parseBoolean(environ.getOrDefault("JITTER_BUFFER_ENABLED", "false"))) {
+            return null;
+        }
+        return new JitterBuffer(
+                Integer.parseInt(environ.getOrDefault("JITTER_BUFFER_MIN_MS", "40")),
+                Integer.parseInt(environ.getOrDefault("JITTER_BUFFER_MAX_MS", "200")));
+    }
+
+    /**
+     * Adds a received packet.
+     * @param sequence The RTP sequence number.
+     * @param timestamp The RTP timestamp.
+     * @param payload Buffer holding the μ-law payload.
+     * @param offset Offset of the payload.
+     * @param length Length of the payload.
+     * @param arrivalNanos The System.nanoTime() the packet arrived.
+     */
+    public synchronized void offer(int sequence, long timestamp, byte[] payload, int offset, int length,
+                                   long arrivalNanos) {
+        if (length <= 0) {
+            return;
+        }
+        receivedPackets++;
+        updateJitter(timestamp, arrivalNanos);
+        frameSamples = length;
+        updateTarget();
+        sequence &= 0xFFFF;
+        if (!started) {
+            started = true;
+            nextSequence = sequence;
+            highestSequence = sequence;
+        }
+        int ahead = (short) (sequence - nextSequence);
+        if (ahead < 0 && ahead > -CAPACITY) {
+            latePackets++;
+            return;
+        }
+        if (ahead < 0 || ahead >= CAPACITY) {
+            // the stream restarted or jumped: play it from here
+            Arrays.fill(sequences, -1);
+            nextSequence = sequence;
+            highestSequence = sequence;
+            playing = false;
+        }
+        int slot = sequence & MASK;
+        if (sequences[slot] == sequence) {
+            duplicatePackets++;
+            return;
+        }
+        if (frames[slot] == null || frames[slot].length < length) {
+            frames[slot] = new byte[length];
+        }
+        System.arraycopy(payload, offset, frames[slot], 0, length);
+        lengths[slot] = length;
+        sequences[slot] = sequence;
+        if ((short) (sequence - highestSequence) > 0) {
+            highestSequence = sequence;
+        }
+    }
+
+    /**
+     * Takes the next frame for playout.  Once playout has started every call yields a frame: received audio,
+     * concealment or silence.
+     * @param out Buffer receiving the μ-law frame, at least one packet long.
+     * @return The frame length, or 0 while buffering before the first playout.
+     */
+    public synchronized int poll(byte[] out) {
+        if (!started) {
+            return 0;
+        }
+        if (!playing) {
+            if (bufferedFrames() < targetFrames) {
+                return lastLength > 0 ? conceal(out) : 0;
+            }
+            playing = true;
+        }
+        if (bufferedFrames() > targetFrames + EXCESS_FRAMES) {
+            int slot = nextSequence & MASK;
+            if (sequences[slot] == nextSequence) {
+                sequences[slot] = -1;
+                discardedFrames++;
+            } else {
+                lostPackets++;
+            }
+            nextSequence = (nextSequence + 1) & 0xFFFF;
+        }
+
+        int slot = nextSequence & MASK;
+        if (sequences[slot] == nextSequence) {
+            int length = Math.min(lengths[slot], out.length);
+            System.arraycopy(frames[slot], 0, out, 0, length);
+            sequences[slot] = -1;
+            nextSequence = (nextSequence + 1) & 0xFFFF;
+            if (lastFrame.length < length) {
+                lastFrame = new byte[length];
+            }
+            System.arraycopy(out, 0, lastFrame, 0, length);
+            lastLength = length;
+            concealedRun = 0;
+            return length;
+        }
+        if (bufferedFrames() > 0) {
+            // later packets are here, this one is lost
+            lostPackets++;
+            nextSequence = (nextSequence + 1) & 0xFFFF;
+        } else {
+            // nothing to play: wait for the packet and build the target depth back up
+            underruns++;
+            playing = false;
+        }
+        return conceal(out);
+    }
+
+    /**
+     * Repeats the last frame with a fade, then plays silence.
+     */
+    private int conceal(byte[] out) {
+        int length = Math.min(lastLength, out.length);
+        concealedRun++;
+        concealedFrames++;
+        if (concealedRun > MAX_CONCEALED_FRAMES) {
+            Arrays.fill(out, 0, length, ULAW_SILENCE);
+            return length;
+        }
+        int gain = MAX_CONCEALED_FRAMES + 1 - concealedRun;
+        for (int i = 0; i < length; i++) {
+            int sample = UlawToPcmTranscoder.decodeSampleForEncoding(lastFrame[i]) * gain / (MAX_CONCEALED_FRAMES + 1);
+            out[i] = PcmToULawTranscoder.linearToULaw((short) sample);
+        }
+        return length;
+    }
+
+    /**
+     * Number of packet times between the next frame to play and the newest packet received.
+     */
+    private int bufferedFrames() {
+        int span = (short) (highestSequence - nextSequence) + 1;
+        return Math.max(span, 0);
+    }
+
+    /**
+     * RFC 3550 interarrival jitter, in samples.
+     */
+    private void updateJitter(long timestamp, long arrivalNanos) {
+        long transit = arrivalNanos / 125_000L - timestamp;
+        if (haveTransit) {
+            long d = Math.abs(transit - lastTransit);
+            jitterSamples += (d - jitterSamples) / 16;
+        }
+        lastTransit = transit;
+        haveTransit = true;
+    }
+
+    private void updateTarget() {
+        int delaySamples = (int) Math.ceil(3 * jitterSamples) + frameSamples;
+        int delay = Math.max(minDelayMillis * SAMPLES_PER_MILLI,
+                Math.min(maxDelayMillis * SAMPLES_PER_MILLI, delaySamples));
+        targetFrames = Math.max(1, (delay + frameSamples - 1) / frameSamples);
+    }
+
+    /**
+     * Returns the packet time in milliseconds, or 0 before the first packet.
+     */
+    public synchronized int getFrameMillis() {
+        return frameSamples / SAMPLES_PER_MILLI;
+    }
+
+    public synchronized double getJitterMillis() {
+        return jitterSamples / SAMPLES_PER_MILLI;
+    }
+
+    public synchronized int getTargetDelayMillis() {
+        return targetFrames * frameSamples / SAMPLES_PER_MILLI;
+    }
+
+    public synchronized int getBufferedMillis() {
+        return started ? bufferedFrames() * frameSamples / SAMPLES_PER_MILLI : 0;
+    }
+
+    public synchronized long getReceivedPackets() {
+        return receivedPackets;
+    }
+
+    public synchronized long getLostPackets() {
+        return lostPackets;
+    }
+
+    public synchronized long getLatePackets() {
+        return latePackets;
+    }
+
+    public synchronized long getDuplicatePackets() {
+        return duplicatePackets;
+    }
+
+    public synchronized long getConcealedFrames() {
+        return concealedFrames;
+    }
+
+    public synchronized long getDiscardedFrames() {
+        return discardedFrames;
+    }
+
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("received=%d lost=%d late=%d duplicate=%d concealed=%d discarded=%d underruns=%d "
+                        + "jitter=%.1fms target=%dms", receivedPackets, lostPackets, latePackets, duplicatePackets,
+                concealedFrames, discardedFrames, underruns, getJitterMillis(), getTargetDelayMillis());
+    }
+}
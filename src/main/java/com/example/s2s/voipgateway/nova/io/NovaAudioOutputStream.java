@@ -3,46 +3,60 @@ package com.example.s2s.voipgateway.nova.io;
 import com.example.s2s.voipgateway.constants.MediaTypes;
 import com.example.s2s.voipgateway.constants.SonicAudioConfig;
 import com.example.s2s.voipgateway.constants.SonicAudioTypes;
-import com.example.s2s.voipgateway.nova.event.AudioInputEvent;
+import com.example.s2s.voipgateway.nova.event.AudioInputEventTemplate;
 import com.example.s2s.voipgateway.nova.event.EndAudioContent;
 import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
+import com.example.s2s.voipgateway.nova.event.PreSerializedEvent;
 import com.example.s2s.voipgateway.nova.event.StartAudioContent;
 import com.example.s2s.voipgateway.nova.observer.InteractObserver;
-import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Base64;
 import java.util.Objects;
 import java.util.UUID;
 
 /**
- * Abstracts Nova S2S outbound audio as an OutputStream.
+ * Abstracts Nova S2S outbound audio as an OutputStream.  When voice activity detection is enabled, frames pass
+ * through a {@link VoiceActivityGate} and silence is not sent.  An optional voice listener hears about every frame
+ * in which the caller is speaking.
  */
 public class NovaAudioOutputStream extends OutputStream {
+    private static final Logger LOG = LoggerFactory.getLogger(NovaAudioOutputStream.class);
     private final InteractObserver<NovaSonicEvent> observer;
-    private final Base64.Encoder encoder = Base64.getEncoder();
     private final String promptName;
     private final String contentName;
+    private final AudioInputEventTemplate audioTemplate;
+    private final VoiceActivityGate vad;
+    private final VoiceActivityGate voiceDetector;
+    private final Runnable voiceListener;
     private boolean startSent = false;
     private OutputStream audioFileOutput;
     private boolean debugAudioReceived = System.getenv().getOrDefault("DEBUG_AUDIO_RECEIVED", "false").equalsIgnoreCase("true");
 
     public NovaAudioOutputStream(InteractObserver<NovaSonicEvent> observer, String promptName) {
+        this(observer, promptName, null);
+    }
+
+    /**
+     * @param voiceListener Called for each frame in which the caller is speaking, may be null.
+     */
+    public NovaAudioOutputStream(InteractObserver<NovaSonicEvent> observer, String promptName,
+                                 Runnable voiceListener) {
         this.observer = observer;
         this.promptName = promptName;
         this.contentName = UUID.randomUUID().toString();
+        this.audioTemplate = new AudioInputEventTemplate(promptName, contentName, "USER");
+        this.vad = VoiceActivityGate.fromEnvironment();
+        this.voiceListener = voiceListener;
+        this.voiceDetector = voiceListener != null && vad == null ? VoiceActivityGate.detectorFromEnvironment() : null;
     }
 
     @Override
     public synchronized void write(byte[] b, int off, int len) throws IOException {
         Objects.checkFromIndexSize(off, len, b.length);
-        if (b.length != len) {
-            byte[] other = new byte[len];
-            System.arraycopy(b, off, other, 0, len);
-            b = other;
-        }
         if (!startSent) {
             sendStart();
             if (debugAudioReceived) {
@@ -50,17 +64,26 @@ public class NovaAudioOutputStream extends OutputStream {
             }
         }
 
-        byte[] pcmData = UlawToPcmTranscoder.convertByteArray(b);
+        if (vad != null) {
+            vad.process(b, off, len, this::sendAudio);
+        } else {
+            sendAudio(b, off, len);
+        }
+        if (voiceListener != null && (vad != null ? vad.isSpeaking() : voiceDetector.detect(b, off, len))) {
+            voiceListener.run();
+        }
+    }
+
+    /**
+     * Sends a frame of μ-law audio as an audioInput event.
+     */
+    private void sendAudio(byte[] b, int off, int len) throws IOException {
+        PreSerializedEvent event = audioTemplate.render(b, off, len);
         if (audioFileOutput != null) {
-            audioFileOutput.write(pcmData);
+            audioFileOutput.write(audioTemplate.getLastPcm(), 0, len * 2);
         }
 
-        observer.onNext(new AudioInputEvent(AudioInputEvent.AudioInput.builder()
-                .promptName(promptName)
-                .contentName(contentName)
-                .role("USER")
-                .content(encoder.encodeToString(pcmData))
-                .build()));
+        observer.onNext(event);
     }
 
     /**
@@ -91,6 +114,12 @@ public class NovaAudioOutputStream extends OutputStream {
 
     @Override
     public void close() throws IOException {
+        if (vad != null) {
+            long frames = vad.getForwardedFrames() + vad.getSuppressedFrames();
+            LOG.info("Inbound VAD: {} of {} frames suppressed ({}%), {} forwarded, {} keep-alive frames sent",
+                    vad.getSuppressedFrames(), frames, frames > 0 ? vad.getSuppressedFrames() * 100 / frames : 0,
+                    vad.getForwardedFrames(), vad.getKeepAliveFrames());
+        }
         observer.onNext(new EndAudioContent(EndAudioContent.ContentEnd.builder()
                 .promptName(promptName)
                 .contentName(UUID.randomUUID().toString())
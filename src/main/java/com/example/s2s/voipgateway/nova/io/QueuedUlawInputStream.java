@@ -1,6 +1,7 @@
 package com.example.s2s.voipgateway.nova.io;
 
 import com.example.s2s.voipgateway.nova.transcode.PcmToULawTranscoder;
+import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -8,22 +9,61 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * An InputStream backed by a queue for sending outbound ULAW audio.
+ * An InputStream backed by a ring buffer for sending outbound ULAW audio.
+ *
+ * Producers append audio on the Nova response thread; the RTP sender is the single consumer.  The read side is
+ * lock-free and never blocks: when the buffer runs dry the remainder of the read is filled with silence.
+ *
+ * While a filler clip is set (e.g. during a slow tool call) it loops in place of that silence.  It fades in, and
+ * crossfades out as soon as queued audio arrives, which also clears it.
  */
 public class QueuedUlawInputStream extends InputStream {
     private static final Logger log = LoggerFactory.getLogger(QueuedUlawInputStream.class);
     private static final byte SILENCE = 127;
-    private LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(50000);
-    private byte[] currentChunk = null;
-    private int currentIndex = -1;
-    private boolean open = true;
+    private static final int DEFAULT_CAPACITY = 1 << 19; // ~65 seconds of 8 kHz ULAW
+    private static final long FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int FILLER_FADE_SAMPLES = 160; // 20 ms
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next position to read, written by the consumer only
+    private final AtomicLong tail = new AtomicLong(); // next position to write, written by producers only
+    private volatile long flushTarget = 0; // queued audio before this position is discarded by the consumer
+    private volatile long flushRequestedNanos = 0;
+    private volatile long lastFlushLatencyNanos = -1;
+    private volatile boolean open = true;
+    private volatile long underrunCount = 0;
+    private volatile long silenceBytes = 0;
+    private boolean playing = false;
+    private volatile byte[] filler; // requested filler clip, null when none
+    private volatile long fillerMaxSamples = 0;
+    private byte[] fillerPlaying; // clip being mixed by the consumer, fading out once filler is cleared
+    private int fillerPosition = 0;
+    private int fillerGain = 0; // 0..FILLER_FADE_SAMPLES
+    private long fillerSamples = 0;
     private OutputStream testOutput;
     private boolean debugAudioSent = System.getenv().getOrDefault("DEBUG_AUDIO_SENT", "false").equalsIgnoreCase("true");
 
+    public QueuedUlawInputStream() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a stream with the given buffer capacity.
+     * @param capacity The capacity in bytes, rounded up to a power of two.
+     */
+    public QueuedUlawInputStream(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+    }
+
     /**
      * Appends PCM audio data to the queue.  The data is expected to be 8000 khz sample rate, 16 bit samples, 1 channel.
      *
@@ -31,18 +71,51 @@ public class QueuedUlawInputStream extends InputStream {
      * @throws InterruptedException If an interrupt is thrown while appending audio data to the queue.
      */
     public void append(byte[] data) throws InterruptedException {
-        data = PcmToULawTranscoder.transcodeBytes(data);
-        queue.put(data);
+        byte[] ulaw = PcmToULawTranscoder.transcodeBytes(data);
+        appendUlaw(ulaw, 0, ulaw.length);
+    }
+
+    /**
+     * Appends ULAW audio data to the queue, waiting for space if the buffer is full.
+     *
+     * @param data The buffer holding the audio data.
+     * @param off The offset of the audio data.
+     * @param len The number of bytes to append.
+     * @throws InterruptedException If an interrupt is thrown while waiting for buffer space.
+     */
+    public synchronized void appendUlaw(byte[] data, int off, int len) throws InterruptedException {
+        Objects.checkFromIndexSize(off, len, data.length);
+        int remaining = len;
+        int pos = off;
+        while (remaining > 0 && open) {
+            long t = tail.get();
+            // free space counts from head only: until the consumer has applied a flush it may still be copying
+            // the slots before flushTarget
+            int free = buffer.length - (int) (t - head.get());
+            if (free == 0) {
+                LockSupport.parkNanos(FULL_WAIT_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                continue;
+            }
+            int n = Math.min(remaining, free);
+            int index = (int) (t & mask);
+            int first = Math.min(n, buffer.length - index);
+            System.arraycopy(data, pos, buffer, index, first);
+            System.arraycopy(data, pos + first, buffer, 0, n - first);
+            tail.lazySet(t + n);
+            pos += n;
+            remaining -= n;
+        }
 
         if (debugAudioSent) {
             // Transcoded audio will be written to a .raw file for debugging purposes.  This can be opened
             // with an audio editor like Audacity (File -> Import -> Raw Data, then use U-Law encoding,
             // 8000 khz sample rate, 1 channel).
             //
-            try {
-                OutputStream testOutput = new FileOutputStream("bedrock.raw", true);
-                testOutput.write(data);
-                testOutput.close();
+            try (OutputStream debugOutput = new FileOutputStream("bedrock.raw", true)) {
+                debugOutput.write(data, off, len);
             } catch (IOException e) {
                 log.warn("Failed to write debugging audio output", e);
             }
@@ -54,36 +127,210 @@ public class QueuedUlawInputStream extends InputStream {
         if (!open) {
             throw new IOException("Stream is closed!");
         }
-        if (testOutput == null && debugAudioSent) {
-            testOutput = new FileOutputStream("sent.raw");
+        long h = applyFlush();
+        byte readByte = SILENCE;
+        if (h < tail.get()) {
+            readByte = buffer[(int) (h & mask)];
+            head.lazySet(h + 1);
+            playing = true;
+        } else {
+            silenceBytes++;
+            if (playing) {
+                underrunCount++;
+            }
+            playing = false;
         }
-        if (open && (currentChunk == null || currentIndex >= currentChunk.length)) {
-            try {
-                if (queue.isEmpty()) {
-                    if (testOutput != null) {
-                        testOutput.write(SILENCE);
-                    }
-                    return SILENCE;
-                }
-                currentChunk = queue.poll(1, TimeUnit.MICROSECONDS);
-                currentIndex = 0;
-                //log.debug("Advance read queue to {}", currentChunk);
-            } catch (InterruptedException e) {
+        if (debugAudioSent) {
+            if (testOutput == null) {
+                testOutput = new FileOutputStream("sent.raw");
             }
-            if (currentChunk == null) {
-                if (testOutput != null) {
-                    testOutput.write(SILENCE);
-                }
-                return SILENCE; // silence is represented by 0x7f.
+            testOutput.write(readByte);
+        }
+        return readByte & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (!open) {
+            throw new IOException("Stream is closed!");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        long h = applyFlush();
+        int n = (int) Math.min(len, tail.get() - h);
+        if (n > 0) {
+            int index = (int) (h & mask);
+            int first = Math.min(n, buffer.length - index);
+            System.arraycopy(buffer, index, b, off, first);
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+            head.lazySet(h + n);
+        }
+        if (n < len) {
+            // silence is represented by 0x7f.
+            Arrays.fill(b, off + n, off + len, SILENCE);
+            silenceBytes += len - n;
+            if (playing) {
+                underrunCount++;
             }
         }
-        byte readByte = currentChunk[currentIndex];
-        currentIndex++;
-        if (testOutput != null) {
-            testOutput.write(readByte);
+        playing = n == len;
+        if (fillerPlaying != null || filler != null) {
+            mixFiller(b, off, n, len);
+        }
+
+        if (debugAudioSent) {
+            if (testOutput == null) {
+                testOutput = new FileOutputStream("sent.raw");
+            }
+            testOutput.write(b, off, len);
+        }
+        return len;
+    }
+
+    /**
+     * Starts looping a filler clip whenever there is no queued audio to play.  It is cleared when queued audio
+     * arrives, on flush, by {@link #stopFiller()} or after the maximum duration.
+     *
+     * @param ulaw The ULAW clip, shared and not modified.
+     * @param maxMillis Maximum filler playout, 0 for no limit.
+     */
+    public void startFiller(byte[] ulaw, long maxMillis) {
+        if (ulaw == null || ulaw.length == 0) {
+            return;
+        }
+        fillerMaxSamples = maxMillis * 8;
+        filler = ulaw;
+    }
+
+    /**
+     * Fades out the filler clip, if one is playing.
+     */
+    public void stopFiller() {
+        filler = null;
+    }
+
+    /**
+     * Returns true while a filler clip is requested.
+     */
+    public boolean isFillerActive() {
+        return filler != null;
+    }
+
+    /**
+     * Mixes the filler clip into a read: the first n bytes are queued audio, the rest silence.  The filler gain
+     * ramps up over silence and down over queued audio, so real audio crossfades in.  Runs on the consumer.
+     */
+    private void mixFiller(byte[] b, int off, int n, int len) {
+        byte[] requested = filler;
+        if (n > 0 && requested != null) {
+            // Nova is speaking: the filler is no longer needed
+            filler = null;
+            requested = null;
+        }
+        if (fillerPlaying == null) {
+            if (requested == null) {
+                return;
+            }
+            fillerPlaying = requested;
+            fillerPosition = 0;
+            fillerGain = 0;
+            fillerSamples = 0;
+        }
+        long maxSamples = fillerMaxSamples;
+        for (int i = 0; i < len; i++) {
+            boolean queued = i < n;
+            boolean wanted = requested == fillerPlaying && !queued;
+            if (wanted && maxSamples > 0 && fillerSamples >= maxSamples) {
+                filler = null;
+                requested = null;
+                wanted = false;
+            }
+            if (wanted && fillerGain < FILLER_FADE_SAMPLES) {
+                fillerGain++;
+            } else if (!wanted && fillerGain > 0) {
+                fillerGain--;
+            }
+            if (fillerGain == 0 && !wanted) {
+                // faded out, the rest of the read is left as it is
+                fillerPlaying = null;
+                return;
+            }
+            int sample = queued ? UlawToPcmTranscoder.decodeSampleForEncoding(b[off + i]) : 0;
+            sample += UlawToPcmTranscoder.decodeSampleForEncoding(fillerPlaying[fillerPosition]) * fillerGain
+                    / FILLER_FADE_SAMPLES;
+            sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            b[off + i] = PcmToULawTranscoder.linearToULaw((short) sample);
+            fillerPosition = (fillerPosition + 1) % fillerPlaying.length;
+            fillerSamples++;
+        }
+    }
+
+    /**
+     * Discards all queued audio, e.g. when the caller barges in.  The RTP sender stops playing the discarded audio
+     * on its next read.
+     *
+     * @return The number of ULAW bytes discarded.
+     */
+    public synchronized int flush() {
+        long t = tail.get();
+        int discarded = (int) (t - Math.max(head.get(), flushTarget));
+        flushRequestedNanos = System.nanoTime();
+        flushTarget = t;
+        filler = null;
+        return discarded;
+    }
+
+    /**
+     * Applies a pending flush on the consumer side.
+     * @return The current read position.
+     */
+    private long applyFlush() {
+        long h = head.get();
+        long target = flushTarget;
+        if (target > h) {
+            head.lazySet(target);
+            lastFlushLatencyNanos = System.nanoTime() - flushRequestedNanos;
+            log.info("Discarded {} queued audio bytes, playout stopped {} ms after the flush request",
+                    target - h, TimeUnit.NANOSECONDS.toMillis(lastFlushLatencyNanos));
+            playing = false;
+            return target;
         }
-        // -1 indicates end of stream .. just use 0 instead
-        return readByte != -1 ? readByte : SILENCE;
+        return h;
+    }
+
+    /**
+     * Returns the time between the last flush request and playout stopping, or -1 if no flush was applied.
+     */
+    public long getLastFlushLatencyNanos() {
+        return lastFlushLatencyNanos;
+    }
+
+    @Override
+    public int available() {
+        return getQueuedBytes();
+    }
+
+    /**
+     * Returns the number of ULAW bytes waiting to be sent.
+     */
+    public int getQueuedBytes() {
+        return (int) (tail.get() - Math.max(head.get(), flushTarget));
+    }
+
+    /**
+     * Returns the number of times playout ran out of audio in the middle of a response.
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+     * Returns the number of silence bytes sent because no audio was queued.
+     */
+    public long getSilenceBytes() {
+        return silenceBytes;
     }
 
     @Override
@@ -0,0 +1,238 @@
+package com.example.s2s.voipgateway.nova.io;
+
+import com.example.s2s.voipgateway.nova.transcode.UlawToPcmTranscoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Energy and zero-crossing voice activity detection on inbound μ-law frames, gating what is sent to Nova Sonic.
+ *
+ * Speech frames are forwarded, preceded by a few frames of pre-roll so the onset is not clipped.  After the last
+ * speech frame audio keeps flowing for the hangover period, long enough for Nova's end of turn detection, and from
+ * then on silence and line noise are suppressed except for one digital silence keep-alive frame per keep-alive
+ * interval.  The noise floor adapts on non-speech frames, so the threshold follows the line.  Timing is counted in
+ * samples, not wall-clock time.  Not thread safe.
+ */
+public class VoiceActivityGate {
+    private static final Logger LOG = LoggerFactory.getLogger(VoiceActivityGate.class);
+    private static final int SAMPLES_PER_MILLI = 8;
+    private static final byte ULAW_SILENCE = (byte) 0xFF;
+    private static final int SPEECH_TO_NOISE_RATIO = 3;
+    private static final double FRICATIVE_ZERO_CROSSING_RATE = 0.25;
+    private static final int ONSET_FRAMES = 2;
+
+    /**
+     * Receives the frames the gate lets through.
+     */
+    public interface FrameSink {
+        void write(byte[] ulaw, int offset, int length) throws IOException;
+    }
+
+    private final int minLevel;
+    private final long hangoverSamples;
+    private final long keepAliveSamples;
+    private final byte[][] preRoll;
+    private final int[] preRollLengths;
+    private int preRollStart = 0;
+    private int preRollCount = 0;
+    private byte[] silence = new byte[0];
+    private double noiseLevel;
+    private int speechRun = 0;
+    private boolean open = true;
+    private long samplesSinceSpeech = 0;
+    private long samplesSinceKeepAlive = 0;
+    private long forwardedFrames = 0;
+    private long suppressedFrames = 0;
+    private long keepAliveFrames = 0;
+
+    /**
+     * Creates a new gate, open until the first hangover period without speech has passed.
+     * @param minLevel Minimum mean absolute sample amplitude considered speech, in the 14-bit units
+     *                 {@link UlawToPcmTranscoder#decodeSample} returns (0 to 8031).
+     * @param hangoverMillis Audio forwarded after the last speech frame.
+     * @param keepAliveMillis Interval between keep-alive frames while suppressing, 0 sends none.
+     * @param preRollFrames Suppressed frames replayed when speech starts.
+     */
+    public VoiceActivityGate(int minLevel, int hangoverMillis, int keepAliveMillis, int preRollFrames) {
+        this.minLevel = minLevel;
+        this.hangoverSamples = (long) hangoverMillis * SAMPLES_PER_MILLI;
+        this.keepAliveSamples = (long) keepAliveMillis * SAMPLES_PER_MILLI;
+        this.preRoll = new byte[preRollFrames][];
+        this.preRollLengths = new int[preRollFrames];
+        this.noiseLevel = minLevel / (double) SPEECH_TO_NOISE_RATIO;
+    }
+
+    /**
+     * Creates a gate configured from VAD_MIN_LEVEL, VAD_HANGOVER_MS, VAD_KEEPALIVE_MS and VAD_PREROLL_FRAMES, or
+     * returns null unless VAD_ENABLED is true.
+     * @return The gate, or null if voice activity detection is disabled
+     */
+    public static VoiceActivityGate fromEnvironment() {
+        Map<String, String> environ = System.getenv();
+        if (!Boolean.parseBoolean(environ.getOrDefault("VAD_ENABLED", "false"))) {
+            return null;
+        }
+        return new VoiceActivityGate(
+                Integer.parseInt(environ.getOrDefault("VAD_MIN_LEVEL", "200")),
+                Integer.parseInt(environ.getOrDefault("VAD_HANGOVER_MS", "1000")),
+                Integer.parseInt(environ.getOrDefault("VAD_KEEPALIVE_MS", "500")),
+                Integer.parseInt(environ.getOrDefault("VAD_PREROLL_FRAMES", "3")));
+    }
+
+    /**
+     * Creates a gate that is only used through {@link #detect}, with the VAD_MIN_LEVEL threshold, whether or not
+     * VAD_ENABLED is set.
+     * @return The detector
+     */
+    public static VoiceActivityGate detectorFromEnvironment() {
+        return new VoiceActivityGate(
+                Integer.parseInt(System.getenv().getOrDefault("VAD_MIN_LEVEL", "200")), 0, 0, 0);
+    }
+
+    /**
+     * Classifies a frame and writes to the sink whatever should be sent for it: nothing, the frame (after any
+     * pre-roll) or a keep-alive silence frame of the same length.
+     * @param ulaw Buffer holding the μ-law frame
+     * @param offset Offset of the frame
+     * @param length Number of μ-law bytes
+     * @param sink Receives the frames to send
+     * @throws IOException If the sink fails
+     */
+    public void process(byte[] ulaw, int offset, int length, FrameSink sink) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        boolean speech = isSpeech(ulaw, offset, length);
+        speechRun = speech ? speechRun + 1 : 0;
+
+        if (open) {
+            samplesSinceSpeech = speech ? 0 : samplesSinceSpeech + length;
+            if (samplesSinceSpeech <= hangoverSamples) {
+                forward(ulaw, offset, length, sink);
+                return;
+            }
+            open = false;
+            samplesSinceKeepAlive = 0;
+            LOG.debug("Inbound VAD closed after {} ms without speech", hangoverSamples / SAMPLES_PER_MILLI);
+        } else if (speechRun >= ONSET_FRAMES || (speech && preRoll.length == 0)) {
+            open = true;
+            samplesSinceSpeech = 0;
+            flushPreRoll(sink);
+            forward(ulaw, offset, length, sink);
+            return;
+        }
+
+        suppressedFrames++;
+        holdPreRoll(ulaw, offset, length);
+        samplesSinceKeepAlive += length;
+        if (keepAliveSamples > 0 && samplesSinceKeepAlive >= keepAliveSamples) {
+            samplesSinceKeepAlive = 0;
+            if (silence.length != length) {
+                silence = new byte[length];
+                Arrays.fill(silence, ULAW_SILENCE);
+            }
+            keepAliveFrames++;
+            sink.write(silence, 0, length);
+        }
+    }
+
+    /**
+     * Classifies a frame without gating it, for callers that only need to know whether the caller is talking.
+     * @param ulaw Buffer holding the μ-law frame
+     * @param offset Offset of the frame
+     * @param length Number of μ-law bytes
+     * @return true if speech has lasted the onset frames, see {@link #isSpeaking()}
+     */
+    public boolean detect(byte[] ulaw, int offset, int length) {
+        if (length > 0) {
+            speechRun = isSpeech(ulaw, offset, length) ? speechRun + 1 : 0;
+        }
+        return isSpeaking();
+    }
+
+    /**
+     * Returns true if the last frame was speech following at least the onset frames of speech, so single clicks
+     * and pops do not count.
+     */
+    public boolean isSpeaking() {
+        return speechRun >= ONSET_FRAMES;
+    }
+
+    /**
+     * A frame is speech when its mean absolute amplitude clears the threshold, or half the threshold with the
+     * high zero-crossing rate of unvoiced consonants.  Non-speech frames update the noise floor.
+     */
+    private boolean isSpeech(byte[] ulaw, int offset, int length) {
+        long sum = 0;
+        int crossings = 0;
+        boolean negative = false;
+        for (int i = offset; i < offset + length; i++) {
+            short sample = UlawToPcmTranscoder.decodeSample(ulaw[i]);
+            sum += Math.abs(sample);
+            if ((sample < 0) != negative && i > offset) {
+                crossings++;
+            }
+            negative = sample < 0;
+        }
+        double level = (double) sum / length;
+        double threshold = Math.max(minLevel, noiseLevel * SPEECH_TO_NOISE_RATIO);
+        boolean speech = level >= threshold
+                || (level >= threshold / 2 && (double) crossings / length >= FRICATIVE_ZERO_CROSSING_RATE);
+        if (!speech) {
+            // falls quickly to a quieter line, rises slowly so speech tails do not raise the floor
+            noiseLevel += (level - noiseLevel) / (level < noiseLevel ? 4 : 32);
+        }
+        return speech;
+    }
+
+    private void forward(byte[] ulaw, int offset, int length, FrameSink sink) throws IOException {
+        forwardedFrames++;
+        sink.write(ulaw, offset, length);
+    }
+
+    private void holdPreRoll(byte[] ulaw, int offset, int length) {
+        if (preRoll.length == 0) {
+            return;
+        }
+        int slot = (preRollStart + preRollCount) % preRoll.length;
+        if (preRollCount == preRoll.length) {
+            preRollStart = (preRollStart + 1) % preRoll.length;
+        } else {
+            preRollCount++;
+        }
+        if (preRoll[slot] == null || preRoll[slot].length < length) {
+            preRoll[slot] = new byte[length];
+        }
+        System.arraycopy(ulaw, offset, preRoll[slot], 0, length);
+        preRollLengths[slot] = length;
+    }
+
+    /**
+     * Sends the held frames that were suppressed just before the speech onset.
+     */
+    private void flushPreRoll(FrameSink sink) throws IOException {
+        for (int i = 0; i < preRollCount; i++) {
+            int slot = (preRollStart + i) % preRoll.length;
+            suppressedFrames--;
+            forward(preRoll[slot], 0, preRollLengths[slot], sink);
+        }
+        preRollStart = 0;
+        preRollCount = 0;
+    }
+
+    public long getForwardedFrames() {
+        return forwardedFrames;
+    }
+
+    public long getSuppressedFrames() {
+        return suppressedFrames;
+    }
+
+    public long getKeepAliveFrames() {
+        return keepAliveFrames;
+    }
+}
@@ -4,6 +4,7 @@ package com.example.s2s.voipgateway.nova.observer;
 import com.example.s2s.voipgateway.nova.event.AudioInputEvent;
 import com.example.s2s.voipgateway.nova.event.NovaSonicEvent;
 import com.example.s2s.voipgateway.nova.event.NovaSonicEventContainer;
+import com.example.s2s.voipgateway.nova.event.PreSerializedEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.reactivestreams.Subscriber;
@@ -30,7 +31,20 @@ public class InputEventsInteractObserver implements InteractObserver<NovaSonicEv
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void onNext(NovaSonicEvent event) {
+        if (event instanceof PreSerializedEvent) {
+            BidirectionalInputPayloadPart chunk = InvokeModelWithBidirectionalStreamInput.chunkBuilder()
+                    .bytes(SdkBytes.fromByteArrayUnsafe(((PreSerializedEvent) event).getJson()))
+                    .build();
+            // audioInput frames may be dropped under backpressure, control events never are
+            if (this.subscriber instanceof OutboundEventPublisher) {
+                ((OutboundEventPublisher<InvokeModelWithBidirectionalStreamInput>) this.subscriber).onNextDroppable(chunk);
+            } else {
+                this.subscriber.onNext(chunk);
+            }
+            return;
+        }
         String msg = writeJson(new NovaSonicEventContainer(event));
         if (!(event instanceof AudioInputEvent)) {
             log.info("publishing message {}", msg);
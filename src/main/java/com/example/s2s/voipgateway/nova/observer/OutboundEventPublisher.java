@@ -0,0 +1,325 @@
+package com.example.s2s.voipgateway.nova.observer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded publisher for outbound Nova Sonic events.
+ *
+ * Events published before {@link #endBootstrap()} (sessionStart, promptStart and the system prompt) are kept and
+ * replayed to every new subscriber.  Later events are buffered in order only until the subscriber has demand for
+ * them, then released.  Only events published with {@link #onNextDroppable} (audioInput frames) count against the
+ * capacity, and only they are subject to the overflow policy: control events such as contentStart, contentEnd,
+ * toolResult and sessionEnd are always queued, since dropping one would leave the Nova session malformed.
+ *
+ * @param <T> The type of event.
+ */
+public class OutboundEventPublisher<T> implements Publisher<T>, Subscriber<T> {
+    private static final Logger log = LoggerFactory.getLogger(OutboundEventPublisher.class);
+
+    /**
+     * What to do with a droppable event when the queue already holds capacity droppable events.
+     */
+    public enum OverflowPolicy {
+        /** Discard the oldest queued droppable event to make room. */
+        DROP_OLDEST,
+        /** Discard the incoming event. */
+        DROP_NEWEST,
+        /** Fail the stream. */
+        ERROR
+    }
+
+    private final List<T> bootstrapEvents = new ArrayList<>();
+    private final ArrayDeque<Queued<T>> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private boolean bootstrapping = true;
+    private Subscriber<? super T> subscriber;
+    private PublisherSubscription subscription;
+    private int replayIndex = 0;
+    private long requested = 0;
+    private boolean done = false;
+    private Throwable error;
+    private boolean terminated = false;
+    private boolean draining = false;
+    private boolean missed = false;
+    private int droppableCount = 0;
+    private long droppedCount = 0;
+    private int maxDepth = 0;
+
+    public OutboundEventPublisher(int capacity, OverflowPolicy overflowPolicy) {
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Creates a publisher configured from NOVA_OUTBOUND_QUEUE_SIZE and NOVA_OUTBOUND_OVERFLOW_POLICY.
+     * @param <T> The type of event.
+     * @return The publisher
+     */
+    public static <T> OutboundEventPublisher<T> fromEnvironment() {
+        Map<String, String> environ = System.getenv();
+        return new OutboundEventPublisher<>(
+                Integer.parseInt(environ.getOrDefault("NOVA_OUTBOUND_QUEUE_SIZE", "500")),
+                OverflowPolicy.valueOf(environ.getOrDefault("NOVA_OUTBOUND_OVERFLOW_POLICY", "DROP_OLDEST")));
+    }
+
+    /**
+     * Marks the end of the session bootstrap events.  Events published after this are not replayed.
+     */
+    public synchronized void endBootstrap() {
+        bootstrapping = false;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> s) {
+        PublisherSubscription newSubscription;
+        synchronized (this) {
+            if (subscriber != null) {
+                newSubscription = null;
+            } else {
+                subscriber = s;
+                subscription = new PublisherSubscription();
+                newSubscription = subscription;
+                replayIndex = 0;
+                requested = 0;
+            }
+        }
+        if (newSubscription == null) {
+            s.onSubscribe(new PublisherSubscription());
+            s.onError(new IllegalStateException("Outbound publisher already has a subscriber"));
+            return;
+        }
+        s.onSubscribe(newSubscription);
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        s.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(T event) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (bootstrapping) {
+                bootstrapEvents.add(event);
+            } else {
+                queue.addLast(new Queued<>(event, false));
+                maxDepth = Math.max(maxDepth, queue.size());
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Publishes an event that may be discarded by the overflow policy, such as an audioInput frame.
+     * @param event The event.
+     */
+    public void onNextDroppable(T event) {
+        boolean overflowError = false;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (bootstrapping) {
+                bootstrapEvents.add(event);
+            } else if (droppableCount < capacity) {
+                queue.addLast(new Queued<>(event, true));
+                droppableCount++;
+            } else {
+                droppedCount++;
+                if (droppedCount % 100 == 1) {
+                    log.warn("Outbound queue full ({} audio events), policy {}: {} event(s) dropped so far",
+                            capacity, overflowPolicy, droppedCount);
+                }
+                switch (overflowPolicy) {
+                    case DROP_OLDEST:
+                        removeOldestDroppable();
+                        queue.addLast(new Queued<>(event, true));
+                        break;
+                    case DROP_NEWEST:
+                        break;
+                    default:
+                        overflowError = true;
+                }
+            }
+            maxDepth = Math.max(maxDepth, queue.size());
+        }
+        if (overflowError) {
+            onError(new IllegalStateException("Outbound queue overflow after " + capacity + " audio events"));
+            return;
+        }
+        drain();
+    }
+
+    private void removeOldestDroppable() {
+        Iterator<Queued<T>> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().droppable) {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            error = t;
+            queue.clear();
+            droppableCount = 0;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+        }
+        drain();
+    }
+
+    /**
+     * Returns the number of live events waiting for demand.
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the highest queue depth seen.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of events discarded by the overflow policy.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Emits events to the subscriber while it has demand.  Only one thread drains at a time and the subscriber is
+     * never called while holding the lock.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                missed = true;
+                return;
+            }
+            draining = true;
+        }
+        for (;;) {
+            Subscriber<? super T> s;
+            T next = null;
+            Throwable terminalError = null;
+            boolean complete = false;
+            synchronized (this) {
+                s = subscriber;
+                if (s != null && !terminated) {
+                    if (error != null) {
+                        terminalError = error;
+                        terminated = true;
+                    } else if (requested > 0 && replayIndex < bootstrapEvents.size()) {
+                        next = bootstrapEvents.get(replayIndex++);
+                    } else if (requested > 0 && !queue.isEmpty()) {
+                        Queued<T> queued = queue.pollFirst();
+                        if (queued.droppable) {
+                            droppableCount--;
+                        }
+                        next = queued.event;
+                    } else if (done && queue.isEmpty() && replayIndex >= bootstrapEvents.size()) {
+                        complete = true;
+                        terminated = true;
+                    }
+                    if (next != null && requested != Long.MAX_VALUE) {
+                        requested--;
+                    }
+                }
+                if (next == null && terminalError == null && !complete) {
+                    if (!missed) {
+                        draining = false;
+                        return;
+                    }
+                    missed = false;
+                    continue;
+                }
+            }
+            if (terminalError != null) {
+                s.onError(terminalError);
+            } else if (complete) {
+                s.onComplete();
+            } else {
+                s.onNext(next);
+            }
+        }
+    }
+
+    /**
+     * A live event waiting for demand.
+     */
+    private static final class Queued<T> {
+        private final T event;
+        private final boolean droppable;
+
+        private Queued(T event, boolean droppable) {
+            this.event = event;
+            this.droppable = droppable;
+        }
+    }
+
+    /**
+     * Subscription handed to the current subscriber.
+     */
+    private class PublisherSubscription implements Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                onError(new IllegalArgumentException("Reactive Streams rule 3.9: request must be positive, was " + n));
+                return;
+            }
+            synchronized (OutboundEventPublisher.this) {
+                if (subscription != this) {
+                    return;
+                }
+                requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (OutboundEventPublisher.this) {
+                if (subscription == this) {
+                    subscriber = null;
+                    subscription = null;
+                    requested = 0;
+                }
+            }
+        }
+    }
+}
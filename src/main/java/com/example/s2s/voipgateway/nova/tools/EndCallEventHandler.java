@@ -18,7 +18,7 @@ import java.util.Map;
  * 2. Marks the call as complete
  * 3. Returns success to AI so it can provide final farewell
  *
- * The actual SIP hangup is handled by the session lifecycle (onComplete/onError).
+ * The handler that routes the tool (HybridEventHandler) then hangs up once the farewell has been played.
  */
 public class EndCallEventHandler extends AbstractNovaS2SEventHandler {
     private static final Logger log = LoggerFactory.getLogger(EndCallEventHandler.class);
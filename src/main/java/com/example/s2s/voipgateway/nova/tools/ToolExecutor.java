@@ -0,0 +1,140 @@
+package com.example.s2s.voipgateway.nova.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide executor for tool invocations, so a slow tool never runs on the Bedrock response thread.
+ *
+ * Tools run on virtual threads when the JVM has them (Java 21+), otherwise on a cached pool of daemon threads.
+ * At most TOOL_MAX_CONCURRENT tools run at once and TOOL_QUEUE_SIZE more may wait; beyond that an invocation is
+ * rejected.  Each invocation has a timeout, after which its thread is interrupted and the future completes with a
+ * TimeoutException.
+ */
+public class ToolExecutor {
+    private static final Logger log = LoggerFactory.getLogger(ToolExecutor.class);
+    private static final ToolExecutor INSTANCE = new ToolExecutor();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final Semaphore running;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int maxPending;
+
+    private ToolExecutor() {
+        Map<String, String> environ = System.getenv();
+        int maxConcurrent = Integer.parseInt(environ.getOrDefault("TOOL_MAX_CONCURRENT", "64"));
+        int queueSize = Integer.parseInt(environ.getOrDefault("TOOL_QUEUE_SIZE", "256"));
+        this.running = new Semaphore(maxConcurrent);
+        this.maxPending = maxConcurrent + queueSize;
+        this.executor = createExecutor();
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tool-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Retrieves the process-wide executor.
+     * @return The executor
+     */
+    public static ToolExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs a tool invocation asynchronously.
+     * @param task The invocation.
+     * @param timeoutMillis Time allowed from submission to completion, 0 for no limit.
+     * @param <T> The result type.
+     * @return A future completing with the result, or exceptionally with the task's exception, a TimeoutException
+     * or a RejectedExecutionException.
+     */
+    public <T> CompletableFuture<T> execute(Callable<T> task, long timeoutMillis) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException("Too many tool invocations in progress"));
+            return result;
+        }
+        // claimed by whichever comes first, the task starting or the timeout cancelling it, so pending drops once
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    run(task, result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            result.completeExceptionally(e);
+            return result;
+        }
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+                TimeoutException timeout = new TimeoutException("Tool timed out after " + timeoutMillis + " ms");
+                if (result.completeExceptionally(timeout)) {
+                    future.cancel(true);
+                    if (claimed.compareAndSet(false, true)) {
+                        pending.decrementAndGet();
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, error) -> timeoutTask.cancel(false));
+        }
+        return result;
+    }
+
+    private <T> void run(Callable<T> task, CompletableFuture<T> result) {
+        try {
+            running.acquire();
+            try {
+                if (!result.isDone()) {
+                    result.complete(task.call());
+                }
+            } finally {
+                running.release();
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Creates a virtual thread per task executor through reflection, as the build targets an older Java.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Tool invocations run on virtual threads");
+            return virtual;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("Virtual threads not available, tool invocations run on platform threads");
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "tool-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -1,13 +1,23 @@
 package com.example.s2s.voipgateway.nova.transcode;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Implementation of ITU-T G.711 μ-law encoding for transcoding linear PCM to μ-law
  * - Input: 8000Hz, 16-bit samples, 1 channel (mono) linear PCM
  * - Output: 8000Hz, 8-bit samples, 1 channel (mono) μ-law
  *
- * This implementation follows the official ITU-T G.711 specification
+ * This implementation follows the official ITU-T G.711 specification.  Every 16-bit sample is encoded once, when
+ * the class is loaded, into a 64K-entry table, so transcoding is a single lookup per sample.
  */
 public class PcmToULawTranscoder {
+    private static final VarHandle SHORT_LE_ARRAY =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT_LE_BUFFER =
+            MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
 
     // u-law encoding table based on the G.711 standard
     private static final byte[] ULAW_COMPRESS_TABLE = new byte[] {
@@ -32,14 +42,33 @@ public class PcmToULawTranscoder {
     // BIAS value for u-law encoding as defined in the G.711 standard
     private static final int BIAS = 0x84;
 
+    // μ-law byte for every 16-bit sample, indexed by the sample's unsigned value
+    private static final byte[] LINEAR_TO_ULAW_TABLE = new byte[65536];
+
+    static {
+        for (int i = 0; i < LINEAR_TO_ULAW_TABLE.length; i++) {
+            LINEAR_TO_ULAW_TABLE[i] = computeULaw((short) i);
+        }
+    }
+
     /**
      * Encode a 16-bit signed linear PCM sample to 8-bit μ-law
-     * Algorithm follows the ITU-T G.711 specification
      *
      * @param pcmSample 16-bit signed linear PCM sample
      * @return 8-bit μ-law encoded sample
      */
     public static byte linearToULaw(short pcmSample) {
+        return LINEAR_TO_ULAW_TABLE[pcmSample & 0xFFFF];
+    }
+
+    /**
+     * Encode a 16-bit signed linear PCM sample to 8-bit μ-law, used to build the lookup table.
+     * Algorithm follows the ITU-T G.711 specification
+     *
+     * @param pcmSample 16-bit signed linear PCM sample
+     * @return 8-bit μ-law encoded sample
+     */
+    private static byte computeULaw(short pcmSample) {
         // Get the sign and absolute value
         int sign = (pcmSample < 0) ? 0x80 : 0x00;
 
@@ -81,16 +110,53 @@ public class PcmToULawTranscoder {
      */
     public static byte[] transcodeBytes(byte[] pcmData) {
         // Ensure we have complete samples
-        int validBytes = pcmData.length - (pcmData.length % 2);
-        int sampleCount = validBytes / 2;
+        int sampleCount = pcmData.length / 2;
         byte[] ulawData = new byte[sampleCount];
+        transcode(pcmData, 0, pcmData.length, ulawData, 0);
+        return ulawData;
+    }
 
-        for (int i = 0; i < validBytes; i += 2) {
-            // Convert byte pair to short - handle little-endian encoding
-            short sample = (short)((pcmData[i] & 0xFF) | ((pcmData[i + 1] & 0xFF) << 8));
-            ulawData[i/2] = linearToULaw(sample);
+    /**
+     * Transcode PCM data to μ-law into a caller supplied buffer.  A trailing odd byte is ignored.
+     *
+     * @param pcmData Buffer holding raw 16-bit PCM data (little-endian)
+     * @param offset Offset of the PCM data
+     * @param length Number of PCM bytes
+     * @param ulawData Buffer receiving the 8-bit μ-law data, must have room for length / 2 bytes
+     * @param ulawOffset Offset in the μ-law buffer
+     * @return The number of μ-law bytes written
+     */
+    public static int transcode(byte[] pcmData, int offset, int length, byte[] ulawData, int ulawOffset) {
+        int validBytes = length - (length % 2);
+        int end = offset + validBytes;
+        int out = ulawOffset;
+        for (int i = offset; i < end; i += 2) {
+            short sample = (short) SHORT_LE_ARRAY.get(pcmData, i);
+            ulawData[out++] = LINEAR_TO_ULAW_TABLE[sample & 0xFFFF];
         }
+        return validBytes / 2;
+    }
 
-        return ulawData;
+    /**
+     * Transcode PCM to μ-law between buffers, heap or direct, without allocating.  Encodes as many whole samples as
+     * are remaining in pcm and fit in ulaw, and advances both positions.  The PCM is read as little-endian whatever
+     * the buffer's byte order.
+     *
+     * @param pcm Buffer holding raw 16-bit PCM data (little-endian)
+     * @param ulaw Buffer receiving the 8-bit μ-law data
+     * @return The number of samples encoded
+     */
+    public static int encode(ByteBuffer pcm, ByteBuffer ulaw) {
+        int samples = Math.min(pcm.remaining() / 2, ulaw.remaining());
+        int in = pcm.position();
+        int out = ulaw.position();
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) SHORT_LE_BUFFER.get(pcm, in);
+            ulaw.put(out++, LINEAR_TO_ULAW_TABLE[sample & 0xFFFF]);
+            in += 2;
+        }
+        pcm.position(in);
+        ulaw.position(out);
+        return samples;
     }
 }
\ No newline at end of file
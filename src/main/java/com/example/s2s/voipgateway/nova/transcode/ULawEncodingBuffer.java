@@ -0,0 +1,76 @@
+package com.example.s2s.voipgateway.nova.transcode;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer that accepts 16-bit little-endian PCM as an OutputStream and stores it as μ-law.
+ *
+ * PCM may arrive split at any byte boundary; an odd trailing byte is carried over to the next write.  The buffer
+ * grows to the largest chunk seen and is then reused, so steady-state writes do not allocate.
+ */
+public class ULawEncodingBuffer extends OutputStream {
+    private byte[] buffer;
+    private int length = 0;
+    private int carry = -1;
+
+    public ULawEncodingBuffer(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Clears the buffer for the next chunk.
+     */
+    public void reset() {
+        length = 0;
+        carry = -1;
+    }
+
+    @Override
+    public void write(int b) {
+        if (carry < 0) {
+            carry = b & 0xFF;
+        } else {
+            ensureCapacity(1);
+            buffer[length++] = PcmToULawTranscoder.linearToULaw((short) (carry | ((b & 0xFF) << 8)));
+            carry = -1;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        if (carry >= 0) {
+            write(b[off]);
+            off++;
+            len--;
+        }
+        ensureCapacity(len / 2);
+        length += PcmToULawTranscoder.transcode(b, off, len, buffer, length);
+        if (len % 2 != 0) {
+            carry = b[off + len - 1] & 0xFF;
+        }
+    }
+
+    /**
+     * Returns the backing array; valid data is in [0, getLength()).
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the number of μ-law bytes in the buffer.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+        }
+    }
+}
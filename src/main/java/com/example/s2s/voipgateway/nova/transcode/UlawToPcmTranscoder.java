@@ -1,5 +1,10 @@
 package com.example.s2s.voipgateway.nova.transcode;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * A utility for converting µ-law (G.711) encoded audio to Linear PCM.
  *
@@ -7,6 +12,10 @@ package com.example.s2s.voipgateway.nova.transcode;
  * Output: 8000Hz, 16-bit samples, 2 bytes per frame
  */
 public class UlawToPcmTranscoder {
+    private static final VarHandle SHORT_LE_ARRAY =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT_LE_BUFFER =
+            MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
     // µ-law to linear conversion table
     private static final short[] ULAW_TO_LINEAR_TABLE = new short[256];
 
@@ -19,10 +28,10 @@ public class UlawToPcmTranscoder {
     }
 
     /**
-     * Converts a µ-law encoded byte to a 16-bit linear PCM sample.
+     * Converts a µ-law encoded byte to a linear sample in the 14-bit G.711 range (-8031 to 8031).
      *
      * @param ulawByte The µ-law encoded byte
-     * @return The 16-bit linear PCM sample
+     * @return The linear sample, in 14-bit units
      */
     private static short ulawToLinear(byte ulawByte) {
         // Flip the bits (µ-law data is usually stored with bit inversion)
@@ -37,9 +46,32 @@ public class UlawToPcmTranscoder {
         int magnitude = ((mantissa << 1) + 33) << exponent;
         magnitude = magnitude - 33;
 
-        // Apply sign and return the 16-bit sample
+        // Apply sign and return the 14-bit sample
         return (short) (sign == 1 ? -magnitude : magnitude);
     }
+
+    /**
+     * Decodes a single µ-law sample to the 14-bit G.711 range (-8031 to 8031), not full-scale 16-bit PCM.
+     *
+     * @param ulawByte The µ-law encoded byte
+     * @return The linear sample, in 14-bit units
+     */
+    public static short decodeSample(byte ulawByte) {
+        return ULAW_TO_LINEAR_TABLE[ulawByte & 0xFF];
+    }
+
+    /**
+     * Decodes a single µ-law sample scaled to the 16-bit range {@link PcmToULawTranscoder#linearToULaw(short)}
+     * takes, so audio can be mixed or attenuated and re-encoded without losing level.  (The table above decodes
+     * to the 14-bit G.711 range.)
+     *
+     * @param ulawByte The µ-law encoded byte
+     * @return The sample in the encoder's 16-bit range
+     */
+    public static int decodeSampleForEncoding(byte ulawByte) {
+        return ULAW_TO_LINEAR_TABLE[ulawByte & 0xFF] << 2;
+    }
+
     /**
      * Converts µ-law byte array to linear PCM.
      *
@@ -48,15 +80,46 @@ public class UlawToPcmTranscoder {
      */
     public static byte[] convertByteArray(byte[] ulawData) {
         byte[] pcmData = new byte[ulawData.length * 2];
+        convert(ulawData, 0, ulawData.length, pcmData, 0);
+        return pcmData;
+    }
 
-        for (int i = 0; i < ulawData.length; i++) {
-            short linearSample = ULAW_TO_LINEAR_TABLE[ulawData[i] & 0xFF];
-
-            // Little-endian conversion (low byte first)
-            pcmData[i * 2] = (byte) (linearSample & 0xFF);
-            pcmData[i * 2 + 1] = (byte) ((linearSample >> 8) & 0xFF);
+    /**
+     * Converts µ-law data to linear PCM into a caller supplied buffer.
+     *
+     * @param ulawData Buffer holding the µ-law data
+     * @param offset Offset of the µ-law data
+     * @param length Number of µ-law bytes
+     * @param pcmData Buffer receiving the little-endian PCM data, must have room for length * 2 bytes
+     * @param pcmOffset Offset in the PCM buffer
+     */
+    public static void convert(byte[] ulawData, int offset, int length, byte[] pcmData, int pcmOffset) {
+        int out = pcmOffset;
+        for (int i = offset; i < offset + length; i++) {
+            SHORT_LE_ARRAY.set(pcmData, out, ULAW_TO_LINEAR_TABLE[ulawData[i] & 0xFF]);
+            out += 2;
         }
+    }
 
-        return pcmData;
+    /**
+     * Converts µ-law to linear PCM between buffers, heap or direct, without allocating.  Decodes as many samples as
+     * are remaining in ulaw and fit in pcm, and advances both positions.  The PCM is written little-endian whatever
+     * the buffer's byte order.
+     *
+     * @param ulaw Buffer holding the µ-law data
+     * @param pcm Buffer receiving the 16-bit little-endian PCM data
+     * @return The number of samples decoded
+     */
+    public static int decode(ByteBuffer ulaw, ByteBuffer pcm) {
+        int samples = Math.min(ulaw.remaining(), pcm.remaining() / 2);
+        int in = ulaw.position();
+        int out = pcm.position();
+        for (int i = 0; i < samples; i++) {
+            SHORT_LE_BUFFER.set(pcm, out, ULAW_TO_LINEAR_TABLE[ulaw.get(in++) & 0xFF]);
+            out += 2;
+        }
+        ulaw.position(in);
+        pcm.position(out);
+        return samples;
     }
 }
\ No newline at end of file
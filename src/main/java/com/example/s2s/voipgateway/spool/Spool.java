@@ -0,0 +1,224 @@
+package com.example.s2s.voipgateway.spool;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only file of the records waiting for delivery, so they survive outages of the service they are sent to and
+ * restarts.  Backs the S3 trace uploader and the SQS notifier.
+ *
+ * Each record is appended as a PUT line with its id, key and content (both Base64), and an ACK line with its id once
+ * delivered.  Batches are forced to disk before their delivery starts; acknowledgements are not, so a crash may
+ * deliver a record twice.  The file is emptied whenever nothing is pending and rewritten with only the pending
+ * records once it grows past its limit.  Not thread safe: each spool is used by its owner's worker thread only.
+ */
+@Slf4j
+public class Spool {
+    private static final String PUT = "PUT";
+    private static final String ACK = "ACK";
+    private static final long COMPACT_BYTES = 16L * 1024 * 1024;
+    private final Path file;
+    private final Path temp;
+    private final Map<Long, Record> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long nextId = 1;
+
+    /**
+     * A record waiting for delivery.
+     */
+    public static final class Record {
+        private final String key;
+        private final String content;
+        private long id;
+        private int attempts = 0;
+
+        public Record(String key, String content) {
+            this.key = key;
+            this.content = content;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * Returns the number of failed delivery attempts, as counted by the owner.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Counts a failed delivery attempt.
+         * @return The number of failed attempts so far
+         */
+        public int failedAttempt() {
+            return ++attempts;
+        }
+    }
+
+    /**
+     * Opens a spool file in a directory, creating the directory if needed.
+     * @param directory The spool directory.
+     * @param fileName The spool file name.
+     */
+    public Spool(Path directory, String fileName) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve(fileName);
+        this.temp = directory.resolve(fileName + ".tmp");
+    }
+
+    /**
+     * Reads the records left unacknowledged by a previous run and rewrites the spool with only those.  Must be
+     * called once, before anything is appended.
+     * @return The recovered records, in the order they were spooled
+     */
+    public List<Record> recover() throws IOException {
+        Map<Long, Record> recovered = new LinkedHashMap<>();
+        int corrupt = 0;
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(" ", -1);
+                    try {
+                        if (fields.length == 4 && PUT.equals(fields[0])) {
+                            recovered.put(Long.parseLong(fields[1]),
+                                    new Record(decode(fields[2]), decode(fields[3])));
+                        } else if (fields.length == 2 && ACK.equals(fields[0])) {
+                            recovered.remove(Long.parseLong(fields[1]));
+                        } else {
+                            corrupt++;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        corrupt++; // a record cut short by a crash
+                    }
+                }
+            }
+        }
+        if (corrupt > 0) {
+            log.warn("Skipped {} unreadable record(s) in spool {}", corrupt, file);
+        }
+        rewrite(recovered.values());
+        if (!recovered.isEmpty()) {
+            log.info("Recovered {} record(s) pending delivery from {}", recovered.size(), file);
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Appends a batch of records and forces it to disk.
+     */
+    public void append(List<Record> batch) throws IOException {
+        checkOpen();
+        StringBuilder sb = new StringBuilder();
+        for (Record record : batch) {
+            record.id = nextId++;
+            appendPut(sb, record);
+            pending.put(record.id, record);
+        }
+        write(channel, sb);
+        channel.force(false);
+    }
+
+    /**
+     * Records that a record was delivered.
+     */
+    public void ack(Record record) throws IOException {
+        checkOpen();
+        if (pending.remove(record.id) == null) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            channel.truncate(0);
+        } else if (channel.size() > COMPACT_BYTES) {
+            rewrite(new ArrayList<>(pending.values()));
+        } else {
+            write(channel, new StringBuilder(ACK).append(' ').append(record.id).append('\n'));
+        }
+    }
+
+    /**
+     * Replaces the spool with a file holding only the given records, renumbering them.
+     */
+    private void rewrite(Collection<Record> records) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        pending.clear();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder sb = new StringBuilder();
+            for (Record record : records) {
+                record.id = nextId++;
+                appendPut(sb, record);
+                pending.put(record.id, record);
+            }
+            write(out, sb);
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void checkOpen() throws IOException {
+        if (channel == null) {
+            throw new IOException("Spool " + file + " was not recovered");
+        }
+    }
+
+    /**
+     * Closes the spool file, keeping the pending records for the next run.
+     */
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close spool {}", file, e);
+        }
+    }
+
+    private static void appendPut(StringBuilder sb, Record record) {
+        sb.append(PUT).append(' ').append(record.id)
+                .append(' ').append(encode(record.key))
+                .append(' ').append(encode(record.content)).append('\n');
+    }
+
+    private static void write(FileChannel channel, CharSequence text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String encode(String text) {
+        return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String base64) {
+        return new String(Base64.getDecoder().decode(base64), StandardCharsets.UTF_8);
+    }
+}
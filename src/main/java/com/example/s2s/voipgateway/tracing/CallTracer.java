@@ -1,13 +1,8 @@
 package com.example.s2s.voipgateway.tracing;
 
 import lombok.extern.slf4j.Slf4j;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -28,16 +23,13 @@ import java.util.stream.Collectors;
  *
  * Design principles:
  * - Dinámico: Acepta Map con todas las variables (headers SIP + metadata)
- * - Lazy write: Solo escribe a S3 en close() (al finalizar la llamada)
- * - Fail-safe: Si S3 falla, loguea error pero no afecta la llamada
+ * - Lazy write: Solo escribe a S3 en close() (al finalizar la llamada), en segundo plano vía TraceUploader
+ * - Fail-safe: Si S3 falla, TraceUploader reintenta; la llamada nunca espera a S3
  */
 @Slf4j
 public class CallTracer implements AutoCloseable {
 
     private final Map<String, String> traceVariables;
-    private final String s3Bucket;
-    private final String s3Region;
-    private final S3Client s3Client;
     private boolean alreadyClosed = false;
 
     /**
@@ -47,24 +39,7 @@ public class CallTracer implements AutoCloseable {
      */
     public CallTracer(Map<String, String> traceVariables) {
         this.traceVariables = traceVariables;
-
-        // Leer configuración S3 de variables de entorno
-        this.s3Bucket = System.getenv("S3_BUCKET_NAME");
-        this.s3Region = System.getenv().getOrDefault("S3_REGION", "us-east-1");
-
-        // Crear cliente S3 solo si bucket está configurado
-        if (s3Bucket != null && !s3Bucket.isEmpty()) {
-            this.s3Client = S3Client.builder()
-                .region(Region.of(s3Region))
-                .build();
-            log.info("CallTracer initialized with S3: bucket={}, region={}", s3Bucket, s3Region);
-        } else {
-            this.s3Client = null;
-            log.warn("S3_BUCKET_NAME not configured - traces will NOT be persisted");
-        }
-
-        String sipCallId = traceVariables.getOrDefault("sip_call_id", "unknown");
-        log.info("CallTracer created for call_id={} ({} variables)", sipCallId, traceVariables.size());
+        log.info("CallTracer created for call_id={}", getCallId());
     }
 
     /**
@@ -86,16 +61,16 @@ public class CallTracer implements AutoCloseable {
 
     /**
      * Gets all trace variables.
-     * Returns a copy to prevent external modification.
+     * Returns a read-only view; iterating it decodes every SIP header of the call.
      *
      * @return Map with all variables (SIP headers + UUI variables + metadata)
      */
     public Map<String, String> getAllVariables() {
-        return new HashMap<>(traceVariables);
+        return Collections.unmodifiableMap(traceVariables);
     }
 
     /**
-     * Escribe el trace a S3 cuando la llamada finaliza.
+     * Encola el trace para subirlo a S3 cuando la llamada finaliza; no espera a S3.
      * Llamado desde AbstractNovaS2SEventHandler.onComplete() o onError().
      */
     @Override
@@ -108,38 +83,22 @@ public class CallTracer implements AutoCloseable {
         alreadyClosed = true;
 
         String sipCallId = getCallId();
-        log.info("CallTracer closing for call_id={}, writing to S3...", sipCallId);
-
-        // Si S3 no está configurado, solo loguear y salir
-        if (s3Client == null) {
-            log.warn("S3 not configured, trace for call_id={} will not be persisted", sipCallId);
-            return;
-        }
-
         try {
-            writeToS3();
-            log.info("Successfully wrote trace to S3 for call_id={}", sipCallId);
+            if (submitTrace()) {
+                log.info("CallTracer closed for call_id={}, trace queued for S3", sipCallId);
+            }
         } catch (Exception e) {
             // Loguear error pero NO lanzar excepción - la llamada ya terminó
-            log.error("Failed to write trace to S3 for call_id={}: {}", sipCallId, e.getMessage(), e);
-        } finally {
-            // Cerrar cliente S3
-            if (s3Client != null) {
-                try {
-                    s3Client.close();
-                } catch (Exception e) {
-                    log.error("Error closing S3 client", e);
-                }
-            }
+            log.error("Failed to queue trace for call_id={}: {}", sipCallId, e.getMessage(), e);
         }
     }
 
     /**
-     * Escribe el trace a S3.
+     * Encola el trace en TraceUploader.
      * Formato: key:value por línea (plain text)
      * Path: s3://{bucket}/{client_id}/{sip_call_id}.txt
      */
-    private void writeToS3() {
+    private boolean submitTrace() {
         String sipCallId = traceVariables.getOrDefault("sip_call_id", "unknown");
         String clientId = traceVariables.getOrDefault("client_id", "default");
 
@@ -149,20 +108,8 @@ public class CallTracer implements AutoCloseable {
         // Construir S3 key: {client_id}/{sip_call_id}.txt
         String s3Key = String.format("%s/%s.txt", clientId, sanitizedCallId);
 
-        // Generar contenido en formato key:value
-        String content = generateTraceContent();
-
-        // Crear request
-        PutObjectRequest putRequest = PutObjectRequest.builder()
-            .bucket(s3Bucket)
-            .key(s3Key)
-            .contentType("text/plain")
-            .build();
-
-        // Escribir a S3
-        s3Client.putObject(putRequest, RequestBody.fromString(content, StandardCharsets.UTF_8));
-
-        log.info("Wrote trace to S3: s3://{}/{} ({} bytes)", s3Bucket, s3Key, content.length());
+        // Generar contenido en formato key:value y encolarlo; la subida se hace en segundo plano
+        return TraceUploader.getInstance().submit(s3Key, generateTraceContent());
     }
 
     /**
@@ -0,0 +1,303 @@
+package com.example.s2s.voipgateway.tracing;
+
+import com.example.s2s.voipgateway.spool.Spool;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide uploader of call traces to S3, so ending a call never waits on S3.
+ *
+ * Traces are queued in memory (TRACE_QUEUE_SIZE) and taken in batches of up to TRACE_BATCH_SIZE by a single worker
+ * thread.  When TRACE_SPOOL_DIR is set, each batch is first appended to a spool file there, so traces survive S3
+ * outages and restarts, and traces left in the spool by a previous run are uploaded at startup.  Uploads go through
+ * one shared async S3 client, at most TRACE_UPLOAD_CONCURRENCY at a time; a failed upload is retried with
+ * exponential backoff up to TRACE_RETRY_MAX_MS between attempts, for as long as the process runs.  S3_ENDPOINT
+ * points the client at an S3 compatible server such as MinIO (path style addressing).  When the in-memory queue is
+ * full, new traces are dropped and counted.
+ */
+@Slf4j
+public class TraceUploader {
+    private static final TraceUploader INSTANCE = new TraceUploader();
+    private static final long DRAIN_INTERVAL_MILLIS = 100;
+    private static final long RETRY_BASE_MILLIS = 500;
+    private static final String SPOOL_FILE = "traces.spool";
+    private final String bucket;
+    private final S3AsyncClient s3Client;
+    private final BlockingQueue<Spool.Record> queue;
+    private final int queueSize;
+    private final int batchSize;
+    private final int concurrency;
+    private final long retryMaxMillis;
+    private final ScheduledThreadPoolExecutor worker;
+    private final Deque<Spool.Record> ready = new ArrayDeque<>(); // worker thread only
+    private final Spool spool;
+    private final AtomicInteger outstanding = new AtomicInteger(); // taken from the queue, not yet uploaded
+    private final AtomicLong uploadedCount = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private int inFlight = 0; // worker thread only
+
+    private TraceUploader() {
+        Map<String, String> environ = System.getenv();
+        bucket = environ.get("S3_BUCKET_NAME");
+        queueSize = Integer.parseInt(environ.getOrDefault("TRACE_QUEUE_SIZE", "1000"));
+        batchSize = Integer.parseInt(environ.getOrDefault("TRACE_BATCH_SIZE", "50"));
+        concurrency = Integer.parseInt(environ.getOrDefault("TRACE_UPLOAD_CONCURRENCY", "8"));
+        retryMaxMillis = Long.parseLong(environ.getOrDefault("TRACE_RETRY_MAX_MS", "60000"));
+        queue = new ArrayBlockingQueue<>(queueSize);
+        if (bucket == null || bucket.isEmpty()) {
+            log.warn("S3_BUCKET_NAME not configured - traces will NOT be persisted");
+            s3Client = null;
+            spool = null;
+            worker = null;
+            return;
+        }
+
+        String region = environ.getOrDefault("S3_REGION", "us-east-1");
+        String endpoint = environ.get("S3_ENDPOINT");
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                .region(Region.of(region))
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .eventLoopGroupBuilder(SdkEventLoopGroup.builder().numberOfThreads(1))
+                        .maxConcurrency(concurrency));
+        if (endpoint != null && !endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+        }
+        s3Client = builder.build();
+
+        worker = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "trace-uploader");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        spool = openSpool(environ.get("TRACE_SPOOL_DIR"));
+        worker.scheduleWithFixedDelay(this::drain, DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "trace-uploader-shutdown"));
+        log.info("TraceUploader initialized: bucket={}, region={}, endpoint={}, spool={}, queue={}, batch={}, "
+                        + "concurrency={}", bucket, region, endpoint != null ? endpoint : "default",
+                environ.getOrDefault("TRACE_SPOOL_DIR", "none"), queueSize, batchSize, concurrency);
+    }
+
+    /**
+     * Opens the spool and queues the traces a previous run left in it, on the worker thread.
+     */
+    private Spool openSpool(String directory) {
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        try {
+            Spool opened = new Spool(Paths.get(directory), SPOOL_FILE);
+            worker.execute(() -> {
+                try {
+                    List<Spool.Record> recovered = opened.recover();
+                    outstanding.addAndGet(recovered.size());
+                    ready.addAll(recovered);
+                } catch (IOException e) {
+                    log.error("Failed to recover trace spool in {}", directory, e);
+                }
+            });
+            return opened;
+        } catch (IOException e) {
+            log.error("Failed to open trace spool in {}, traces will only be kept in memory", directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the process-wide uploader.
+     * @return The uploader
+     */
+    public static TraceUploader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a trace for upload without blocking.
+     * @param key The S3 object key.
+     * @param content The trace content.
+     * @return Whether the trace was queued; false if S3 is not configured or the queue is full
+     */
+    public boolean submit(String key, String content) {
+        if (s3Client == null) {
+            log.warn("S3 not configured, trace {} will not be persisted", key);
+            return false;
+        }
+        if (!queue.offer(new Spool.Record(key, content))) {
+            droppedCount.incrementAndGet();
+            log.error("Trace upload queue full ({} traces), dropping trace {} ({} dropped so far)", queueSize, key,
+                    droppedCount.get());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves queued traces to the spool and starts uploads.  Runs on the worker thread.
+     */
+    private void drain() {
+        try {
+            while (!queue.isEmpty() && ready.size() < queueSize) {
+                List<Spool.Record> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+                queue.drainTo(batch, batchSize);
+                if (spool != null) {
+                    try {
+                        spool.append(batch);
+                    } catch (IOException e) {
+                        log.error("Failed to spool {} trace(s), uploading them from memory only", batch.size(), e);
+                    }
+                }
+                outstanding.addAndGet(batch.size());
+                ready.addAll(batch);
+            }
+            startUploads();
+        } catch (RuntimeException e) {
+            log.error("Trace upload worker failed", e);
+        }
+    }
+
+    private void startUploads() {
+        while (inFlight < concurrency && !ready.isEmpty()) {
+            Spool.Record trace = ready.poll();
+            inFlight++;
+            PutObjectRequest request = PutObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(trace.getKey())
+                    .contentType("text/plain")
+                    .build();
+            try {
+                s3Client.putObject(request, AsyncRequestBody.fromString(trace.getContent(), StandardCharsets.UTF_8))
+                        .whenComplete((response, error) -> onWorker(() -> {
+                            uploaded(trace, error);
+                            startUploads();
+                        }));
+            } catch (RuntimeException e) {
+                uploaded(trace, e);
+            }
+        }
+    }
+
+    private void uploaded(Spool.Record trace, Throwable error) {
+        inFlight--;
+        if (error == null) {
+            uploadedCount.incrementAndGet();
+            outstanding.decrementAndGet();
+            log.info("Wrote trace to S3: s3://{}/{} ({} bytes)", bucket, trace.getKey(),
+                    trace.getContent().length());
+            if (spool != null) {
+                try {
+                    spool.ack(trace);
+                } catch (IOException e) {
+                    log.warn("Failed to record upload of trace {} in the spool", trace.getKey(), e);
+                }
+            }
+        } else {
+            failedAttempts.incrementAndGet();
+            int attempts = trace.failedAttempt();
+            long backoff = Math.min(retryMaxMillis, RETRY_BASE_MILLIS << Math.min(attempts - 1, 16));
+            long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            log.warn("Failed to write trace s3://{}/{} (attempt {}), retrying in {} ms: {}", bucket,
+                    trace.getKey(), attempts, delay, error.getMessage());
+            try {
+                worker.schedule(() -> {
+                    ready.add(trace);
+                    startUploads();
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("Trace uploader stopped, trace {} stays pending", trace.getKey());
+            }
+        }
+    }
+
+    private void onWorker(Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("Trace uploader stopped, dropping upload result");
+        }
+    }
+
+    /**
+     * Spools the queued traces and stops the worker.  Traces not yet uploaded stay in the spool, if there is one.
+     */
+    public void close() {
+        if (worker == null || worker.isShutdown()) {
+            return;
+        }
+        worker.execute(() -> {
+            drain();
+            if (spool != null) {
+                spool.close();
+            }
+        });
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int pending = outstanding.get() + queue.size();
+        if (pending > 0) {
+            log.warn("Trace uploader stopped with {} trace(s) not uploaded{}", pending,
+                    spool != null ? ", kept in the spool" : "");
+        }
+        try {
+            s3Client.close();
+        } catch (RuntimeException e) {
+            log.warn("Failed to close S3 client", e);
+        }
+    }
+
+    /**
+     * Returns the number of traces queued or being uploaded.
+     */
+    public int getPendingCount() {
+        return outstanding.get() + queue.size();
+    }
+
+    /**
+     * Returns the number of traces uploaded.
+     */
+    public long getUploadedCount() {
+        return uploadedCount.get();
+    }
+
+    /**
+     * Returns the number of failed upload attempts.
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * Returns the number of traces dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}